@@ -0,0 +1,97 @@
+package org.epics.pvaccess.scope;
+
+import java.util.concurrent.TimeUnit;
+
+import org.epics.pvaccess.scope.SignalGenerator.PeriodTableWaveform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The inner loops of the periodic waves alone, one frame at a fixed phase
+ * with each {@link WaveformKernel} and with the period tables, to compare
+ * them against the scalar kernel.
+ * <p>
+ * Before measuring, the samples are checked against those of the scalar
+ * kernel at the same phase and the largest difference is printed; the
+ * benchmark fails if it exceeds {@link #MAX_DEVIATION}. The
+ * <code>vector</code> kernel is the scalar one unless the forks run with
+ * <code>--add-modules jdk.incubator.vector</code>. The class is in the
+ * package of the server to fill the tables at a given phase.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WaveformKernelBenchmark {
+
+    static final double MAX_DEVIATION = 1e-9;
+
+    private static final double WAVELENGTH = 100.0;
+    private static final double K = 2 * Math.PI / WAVELENGTH;
+    private static final double PHASE = 1234.5678;
+
+    @Param({ "sine", "square", "sawtooth" })
+    private String signal;
+
+    @Param({ "1000", "100000", "1000000" })
+    private int sampleCount;
+
+    @Param({ "scalar", "vector", "table" })
+    private String kernel;
+
+    private WaveformKernel waveformKernel;
+    private PeriodTableWaveform table;
+    private double[] buffer;
+
+    @Setup
+    public void setup() {
+        if (kernel.equals(WaveformKernels.TABLE_NAME))
+            table = new PeriodTableWaveform(signal, 1.0, WAVELENGTH, (double) sampleCount, 0.1);
+        else
+            waveformKernel = WaveformKernels.forName(kernel);
+        buffer = new double[sampleCount];
+
+        double[] reference = new double[sampleCount];
+        fill(WaveformKernels.SCALAR, reference);
+        fill();
+        double deviation = 0;
+        for (int i = 0; i < sampleCount; i++)
+            deviation = Math.max(deviation, Math.abs(buffer[i] - reference[i]));
+        System.out.printf("%n%s %s: max deviation from the scalar kernel %.3g%n", signal, kernel, deviation);
+        if (deviation > MAX_DEVIATION)
+            throw new IllegalStateException(signal + " " + kernel + " deviates from the scalar kernel by " + deviation);
+    }
+
+    @Benchmark
+    public double[] fill() {
+        if (table != null)
+            table.fill(PHASE, buffer);
+        else
+            fill(waveformKernel, buffer);
+        return buffer;
+    }
+
+    private void fill(WaveformKernel waveformKernel, double[] buffer) {
+        switch (signal) {
+        case ScopeChannelConfig.SINE:
+            waveformKernel.sine(PHASE, K, buffer, 0, buffer.length);
+            break;
+        case ScopeChannelConfig.SQUARE:
+            waveformKernel.square(PHASE, K, buffer, 0, buffer.length);
+            break;
+        default:
+            waveformKernel.sawtooth(PHASE, K, buffer, 0, buffer.length);
+        }
+    }
+}
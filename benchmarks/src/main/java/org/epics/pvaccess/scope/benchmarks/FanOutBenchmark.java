@@ -0,0 +1,99 @@
+package org.epics.pvaccess.scope.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.epics.pvaccess.scope.ScopePvStructure;
+import org.epics.pvaccess.scope.ScopePvStructure.Frame;
+import org.epics.pvaccess.scope.ScopePvStructure.ScopePvStructureListener;
+import org.epics.pvdata.misc.BitSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Notification of an update to the in-process listeners of a scope
+ * structure, each taking a reference on the published frame like the
+ * monitors do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({ "1", "10", "100", "1000" })
+    private int listenerCount;
+
+    @Param({ "1000" })
+    private int sampleCount;
+
+    private ScopePvStructure structure;
+    private BitSet changedBitSet;
+
+    private static class FrameListener implements ScopePvStructureListener {
+        private final ScopePvStructure structure;
+        long versions;
+
+        FrameListener(ScopePvStructure structure) {
+            this.structure = structure;
+        }
+
+        @Override
+        public void scopeStructureChanged(BitSet changedBitSet) {
+            Frame frame = structure.acquireFrame();
+            if (frame != null) {
+                versions += frame.getVersion();
+                frame.release();
+            }
+        }
+    }
+
+    @Setup
+    public void setup() throws InterruptedException {
+        // the benchmark updates the structure itself
+        structure = IdleStructure.create("sine:n=" + sampleCount, scopePvStructure -> {
+            for (int i = 0; i < listenerCount; i++)
+                scopePvStructure.registerListener(new FrameListener(scopePvStructure));
+            scopePvStructure.process();
+        });
+        structure.lock();
+        try {
+            changedBitSet = (BitSet) structure.getChangedBitSet().clone();
+        } finally {
+            structure.unlock();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        structure.stop();
+    }
+
+    /**
+     * Notifies the listeners of the current frame.
+     */
+    @Benchmark
+    public void notifyListeners() {
+        structure.notifyListeners(changedBitSet);
+    }
+
+    /**
+     * A full tick: generates and publishes a frame, then notifies the
+     * listeners.
+     */
+    @Benchmark
+    public void process() {
+        structure.process();
+    }
+}
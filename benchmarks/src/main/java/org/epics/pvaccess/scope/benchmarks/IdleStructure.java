@@ -0,0 +1,47 @@
+package org.epics.pvaccess.scope.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+import org.epics.pvaccess.scope.ScopePvStructure;
+import org.epics.pvaccess.scope.ScopePvStructure.Frame;
+
+/**
+ * Creates the scope structures driven by the benchmarks themselves: they
+ * tick once every 1000 s, and are returned once their first tick has run on
+ * the event loop, so that the benchmark thread does not race it.
+ */
+final class IdleStructure {
+
+    private IdleStructure() {
+    }
+
+    /**
+     * @param signalAndParameters
+     *            the signal and parameters of the channel name, without the
+     *            rate, e.g. <code>sine:n=1000</code>
+     * @param setup
+     *            run on the event loop after the first tick, e.g. to register
+     *            listeners and publish a frame to them
+     * @return the structure, to be stopped by the caller
+     */
+    static ScopePvStructure create(String signalAndParameters, Consumer<ScopePvStructure> setup)
+            throws InterruptedException {
+        ScopePvStructure structure = new ScopePvStructure("scope:" + signalAndParameters + ":rate=0.001");
+        Frame frame;
+        while ((frame = structure.acquireFrame()) == null)
+            Thread.sleep(1);
+        frame.release();
+
+        CountDownLatch done = new CountDownLatch(1);
+        structure.execute(() -> {
+            try {
+                setup.accept(structure);
+            } finally {
+                done.countDown();
+            }
+        });
+        done.await();
+        return structure;
+    }
+}
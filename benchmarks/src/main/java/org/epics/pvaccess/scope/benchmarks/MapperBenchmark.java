@@ -0,0 +1,93 @@
+package org.epics.pvaccess.scope.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.epics.pvaccess.scope.Mapper;
+import org.epics.pvaccess.scope.ScopePvStructure;
+import org.epics.pvdata.copy.CreateRequest;
+import org.epics.pvdata.misc.BitSet;
+import org.epics.pvdata.pv.PVStructure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copy of an update of a scope structure into the structure of a full or a
+ * partial pvRequest, as done for every monitor on every tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+    @Param({ "field()", "field(signal,timeStamp)", "field(timeStamp,config)", "field(timeStamp.nanoseconds)" })
+    private String request;
+
+    @Param({ "1000", "1000000" })
+    private int sampleCount;
+
+    private ScopePvStructure structure;
+    private Mapper mapper;
+    private BitSet originBitSet;
+    private final BitSet copyBitSet = new BitSet();
+
+    @Setup
+    public void setup() throws InterruptedException {
+        // the benchmark updates the structure itself
+        structure = IdleStructure.create("sine:n=" + sampleCount, ScopePvStructure::process);
+        PVStructure pvRequest = CreateRequest.create().createRequest(request);
+        mapper = structure.getMapperCache().getMapper(pvRequest);
+        structure.lock();
+        try {
+            originBitSet = (BitSet) structure.getChangedBitSet().clone();
+        } finally {
+            structure.unlock();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        structure.stop();
+    }
+
+    /**
+     * Copies the fields changed by a tick.
+     */
+    @Benchmark
+    public BitSet updateChanged() {
+        copyBitSet.clear();
+        structure.lock();
+        try {
+            mapper.updateCopyStructureOriginBitSet(originBitSet, copyBitSet);
+        } finally {
+            structure.unlock();
+        }
+        return copyBitSet;
+    }
+
+    /**
+     * Copies all the requested fields, as for the first update of a monitor.
+     */
+    @Benchmark
+    public PVStructure updateAll() {
+        structure.lock();
+        try {
+            mapper.updateCopyStructure(null);
+        } finally {
+            structure.unlock();
+        }
+        return mapper.getCopyStructure();
+    }
+}
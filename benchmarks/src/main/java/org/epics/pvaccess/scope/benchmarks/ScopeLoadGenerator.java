@@ -0,0 +1,419 @@
+package org.epics.pvaccess.scope.benchmarks;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.epics.pvaccess.ClientFactory;
+import org.epics.pvaccess.client.Channel;
+import org.epics.pvaccess.client.Channel.ConnectionState;
+import org.epics.pvaccess.client.ChannelProvider;
+import org.epics.pvaccess.client.ChannelProviderRegistryFactory;
+import org.epics.pvaccess.client.ChannelRequester;
+import org.epics.pvaccess.scope.ScopeChannelConfig;
+import org.epics.pvaccess.scope.ScopeServer;
+import org.epics.pvaccess.server.impl.remote.ServerContextImpl;
+import org.epics.pvdata.copy.CreateRequest;
+import org.epics.pvdata.misc.BitSet;
+import org.epics.pvdata.monitor.Monitor;
+import org.epics.pvdata.monitor.MonitorElement;
+import org.epics.pvdata.monitor.MonitorRequester;
+import org.epics.pvdata.pv.MessageType;
+import org.epics.pvdata.pv.PVArray;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVInt;
+import org.epics.pvdata.pv.PVLong;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.PVStructureArray;
+import org.epics.pvdata.pv.Status;
+import org.epics.pvdata.pv.Structure;
+import org.epics.pvdata.pv.StructureArrayData;
+
+/**
+ * Loads a scope server over pvAccess with N channels of M monitors each and
+ * reports the updates and bytes received per second, the frames dropped
+ * between the server and the client, and the latency from the time stamp of
+ * a frame to its receipt by the client as an HdrHistogram.
+ * <p>
+ * The server is started in-process with <code>-server</code>, otherwise the
+ * client connects to the servers found with the usual
+ * <code>EPICS_PVA_ADDR_LIST</code> settings. The latency compares the clocks
+ * of the server and the client, it is only meaningful on the same host or on
+ * synchronized hosts.
+ * <p>
+ * Run <code>ScopeLoadGenerator -help</code> for the options.
+ */
+public class ScopeLoadGenerator {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: ScopeLoadGenerator [options]",
+            "  -server             start the scope server in this process",
+            "  -channels N         number of channels (1)",
+            "  -monitors M         monitors per channel (1)",
+            "  -signal S           signal of the channels (sine)",
+            "  -samples n[,n...]   samples per frame, cycled over the channels (1000)",
+            "  -rate r[,r...]      update rates, e.g. 10 or 1kHz, cycled over the channels (10)",
+            "  -request R          monitor pvRequest (field(signal,timeStamp))",
+            "  -warmup s           seconds before measuring (5)",
+            "  -duration s         seconds of measurement (30)",
+            "  -connect s          seconds to wait for the monitors to connect (30)",
+            "  -hgrm file          also write the latency distribution to a file");
+
+    private boolean server = false;
+    private int channelCount = 1;
+    private int monitorCount = 1;
+    private String signal = "sine";
+    private String[] sampleCounts = { "1000" };
+    private String[] rates = { "10" };
+    private String request = "field(signal,timeStamp)";
+    private int warmupSeconds = 5;
+    private int durationSeconds = 30;
+    private int connectSeconds = 30;
+    private String hgrmFile = null;
+
+    // latencies in microseconds, recorded by the client threads
+    private final Recorder latencies = new Recorder(3);
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+    private final AtomicInteger connectedMonitors = new AtomicInteger();
+    private final List<String> channelNames = new ArrayList<String>();
+    private final List<LoadChannel> channels = new ArrayList<LoadChannel>();
+
+    /**
+     * One channel and its monitors.
+     */
+    private class LoadChannel implements ChannelRequester {
+        private final String name;
+        private final double rate;
+        private final Channel channel;
+        private final List<LoadMonitor> monitors = new ArrayList<LoadMonitor>();
+
+        LoadChannel(ChannelProvider provider, String name) {
+            this.name = name;
+            this.rate = ScopeChannelConfig.parse(name).getRate();
+            this.channel = provider.createChannel(name, this, ChannelProvider.PRIORITY_DEFAULT);
+        }
+
+        @Override
+        public String getRequesterName() {
+            return getClass().getName();
+        }
+
+        @Override
+        public void message(String message, MessageType type) {
+            System.err.println(name + " " + type + ": " + message);
+        }
+
+        @Override
+        public void channelCreated(Status status, Channel channel) {
+            if (!status.isSuccess())
+                System.err.println("Channel " + name + " create problem: " + status.getMessage());
+        }
+
+        @Override
+        public void channelStateChange(Channel channel, ConnectionState state) {
+            if (state != ConnectionState.CONNECTED)
+                return;
+            synchronized (this) {
+                // avoid subscribing again on a reconnection
+                if (!monitors.isEmpty())
+                    return;
+                PVStructure pvRequest = CreateRequest.create().createRequest(request);
+                for (int i = 0; i < monitorCount; i++)
+                    monitors.add(new LoadMonitor(channel, pvRequest, rate));
+            }
+        }
+
+        synchronized void destroy() {
+            for (LoadMonitor monitor : monitors)
+                monitor.destroy();
+            channel.destroy();
+        }
+    }
+
+    /**
+     * One monitor, measuring the updates it receives.
+     */
+    private class LoadMonitor implements MonitorRequester {
+        private final long periodNanos;
+        private Monitor monitor;
+        private boolean connected = false;
+        // time stamp of the previous update, only used by monitorEvent
+        private long lastNanos = Long.MIN_VALUE;
+
+        LoadMonitor(Channel channel, PVStructure pvRequest, double rate) {
+            this.periodNanos = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / rate));
+            channel.createMonitor(this, pvRequest);
+        }
+
+        @Override
+        public String getRequesterName() {
+            return getClass().getName();
+        }
+
+        @Override
+        public void message(String message, MessageType type) {
+            System.err.println("Monitor " + type + ": " + message);
+        }
+
+        @Override
+        public synchronized void monitorConnect(Status status, Monitor monitor, Structure structure) {
+            if (!status.isSuccess()) {
+                System.err.println("Monitor create problem: " + status.getMessage());
+                return;
+            }
+            this.monitor = monitor;
+            monitor.start();
+            if (!connected) {
+                connected = true;
+                connectedMonitors.incrementAndGet();
+            }
+        }
+
+        @Override
+        public synchronized void monitorEvent(Monitor monitor) {
+            MonitorElement update;
+            while ((update = monitor.poll()) != null) {
+                try {
+                    receive(update);
+                } finally {
+                    monitor.release(update);
+                }
+            }
+        }
+
+        private void receive(MonitorElement update) {
+            Instant now = Instant.now();
+            PVStructure pvStructure = update.getPVStructure();
+            BitSet overrun = update.getOverrunBitSet();
+            updates.increment();
+            if (overrun != null && !overrun.isEmpty())
+                overruns.increment();
+            BitSet changed = update.getChangedBitSet();
+            for (PVField field : pvStructure.getPVFields())
+                if (changed.get(field.getFieldOffset()))
+                    bytes.add(arrayBytes(field));
+
+            PVLong seconds = pvStructure.getSubField(PVLong.class, "timeStamp.secondsPastEpoch");
+            PVInt nanoseconds = pvStructure.getSubField(PVInt.class, "timeStamp.nanoseconds");
+            if (seconds == null || nanoseconds == null)
+                return;
+            long stamp = TimeUnit.SECONDS.toNanos(seconds.get()) + nanoseconds.get();
+            long receipt = TimeUnit.SECONDS.toNanos(now.getEpochSecond()) + now.getNano();
+            latencies.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(receipt - stamp)));
+
+            // the frames of the server in between were not received
+            if (lastNanos != Long.MIN_VALUE && stamp > lastNanos) {
+                long missed = Math.round((double) (stamp - lastNanos) / periodNanos) - 1;
+                if (missed > 0)
+                    droppedFrames.add(missed);
+            }
+            lastNanos = stamp;
+        }
+
+        @Override
+        public void unlisten(Monitor monitor) {
+            // Ignore
+        }
+
+        synchronized void destroy() {
+            if (monitor != null)
+                monitor.destroy();
+        }
+    }
+
+    /**
+     * @return the number of bytes of the samples of the arrays of the field
+     */
+    private static long arrayBytes(PVField field) {
+        long total = 0;
+        if (field instanceof PVStructureArray) {
+            PVStructureArray array = (PVStructureArray) field;
+            StructureArrayData data = new StructureArrayData();
+            array.get(0, array.getLength(), data);
+            for (PVStructure element : data.data)
+                if (element != null)
+                    total += arrayBytes(element);
+        } else if (field instanceof PVArray) {
+            // the scope arrays are double arrays
+            total += 8L * ((PVArray) field).getLength();
+        } else if (field instanceof PVStructure) {
+            for (PVField subField : ((PVStructure) field).getPVFields())
+                total += arrayBytes(subField);
+        }
+        return total;
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("-server")) {
+                server = true;
+                continue;
+            }
+            if (option.equals("-help") || option.equals("-h"))
+                throw new IllegalArgumentException("");
+            if (i + 1 >= args.length)
+                throw new IllegalArgumentException("missing value of " + option);
+            String value = args[++i];
+            switch (option) {
+            case "-channels":
+                channelCount = parsePositive(option, value);
+                break;
+            case "-monitors":
+                monitorCount = parsePositive(option, value);
+                break;
+            case "-signal":
+                signal = value;
+                break;
+            case "-samples":
+                sampleCounts = value.split(",");
+                break;
+            case "-rate":
+                rates = value.split(",");
+                break;
+            case "-request":
+                request = value;
+                break;
+            case "-warmup":
+                warmupSeconds = Integer.parseInt(value);
+                break;
+            case "-duration":
+                durationSeconds = parsePositive(option, value);
+                break;
+            case "-connect":
+                connectSeconds = parsePositive(option, value);
+                break;
+            case "-hgrm":
+                hgrmFile = value;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option: " + option);
+            }
+        }
+        for (int i = 0; i < channelCount; i++)
+            channelNames.add(channelName(i));
+    }
+
+    private static int parsePositive(String option, String value) {
+        int v = Integer.parseInt(value);
+        if (v <= 0)
+            throw new IllegalArgumentException(option + " must be positive");
+        return v;
+    }
+
+    /**
+     * @return the name of the channel <code>i</code>, distinct from the other
+     *         channels through its period so that each has its own generator
+     * @throws IllegalArgumentException
+     *             if a parameter is invalid
+     */
+    private String channelName(int i) {
+        String name = "scope:" + signal + ":n=" + sampleCounts[i % sampleCounts.length].trim() + ":rate="
+                + rates[i % rates.length].trim() + ":period=" + (i + 1);
+        ScopeChannelConfig.parse(name);
+        return name;
+    }
+
+    private void run() throws Exception {
+        ServerContextImpl context = server ? ScopeServer.start() : null;
+        ClientFactory.start();
+        try {
+            ChannelProvider provider = ChannelProviderRegistryFactory.getChannelProviderRegistry().getProvider("pva");
+            for (String name : channelNames)
+                channels.add(new LoadChannel(provider, name));
+
+            int expected = channelCount * monitorCount;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(connectSeconds);
+            while (connectedMonitors.get() < expected && System.nanoTime() < deadline)
+                TimeUnit.MILLISECONDS.sleep(100);
+            System.out.println(connectedMonitors.get() + " of " + expected + " monitors connected");
+            if (connectedMonitors.get() == 0)
+                return;
+
+            TimeUnit.SECONDS.sleep(warmupSeconds);
+            measure();
+        } finally {
+            for (LoadChannel channel : channels)
+                channel.destroy();
+            ClientFactory.stop();
+            if (context != null)
+                context.destroy();
+        }
+    }
+
+    private void measure() throws Exception {
+        Histogram total = new Histogram(3);
+        Histogram interval = latencies.getIntervalHistogram();
+        reset();
+
+        System.out.printf("%6s %12s %12s %10s %10s %10s %10s %10s %10s%n", "time", "updates/s", "MB/s", "dropped",
+                "overruns", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        long start = System.nanoTime();
+        long updateTotal = 0, byteTotal = 0, droppedTotal = 0, overrunTotal = 0;
+        for (int second = 1; second <= durationSeconds; second++) {
+            long next = start + TimeUnit.SECONDS.toNanos(second);
+            TimeUnit.NANOSECONDS.sleep(next - System.nanoTime());
+
+            interval = latencies.getIntervalHistogram(interval);
+            long u = updates.sumThenReset();
+            long b = bytes.sumThenReset();
+            long d = droppedFrames.sumThenReset();
+            long o = overruns.sumThenReset();
+            updateTotal += u;
+            byteTotal += b;
+            droppedTotal += d;
+            overrunTotal += o;
+            total.add(interval);
+            System.out.printf("%6d %12d %12.3f %10d %10d %10.3f %10.3f %10.3f %10.3f%n", second, u, b / 1e6, d, o,
+                    interval.getValueAtPercentile(50) / 1e3, interval.getValueAtPercentile(99) / 1e3,
+                    interval.getValueAtPercentile(99.9) / 1e3, interval.getMaxValue() / 1e3);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println();
+        System.out.printf("channels %d, monitors per channel %d, %s%n", channelCount, monitorCount, request);
+        System.out.printf("updates/s %.1f, MB/s %.3f, dropped frames %d, overruns %d%n", updateTotal / seconds,
+                byteTotal / seconds / 1e6, droppedTotal, overrunTotal);
+        System.out.println("latency (ms):");
+        total.outputPercentileDistribution(System.out, 1000.0);
+        if (hgrmFile != null) {
+            try (PrintStream out = new PrintStream(new FileOutputStream(hgrmFile))) {
+                total.outputPercentileDistribution(out, 1000.0);
+            } catch (IOException e) {
+                System.err.println("Failed to write " + hgrmFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void reset() {
+        updates.reset();
+        bytes.reset();
+        droppedFrames.reset();
+        overruns.reset();
+    }
+
+    public static void main(String[] args) throws Exception {
+        ScopeLoadGenerator generator = new ScopeLoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException e) {
+            if (!e.getMessage().isEmpty())
+                System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        generator.run();
+        System.exit(0);
+    }
+}
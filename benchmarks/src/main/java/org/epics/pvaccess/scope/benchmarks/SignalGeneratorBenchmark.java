@@ -0,0 +1,59 @@
+package org.epics.pvaccess.scope.benchmarks;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.epics.pvaccess.scope.ScopeChannelConfig;
+import org.epics.pvaccess.scope.SignalGenerator.Signal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generation of one frame of each signal, for several sample counts and
+ * generation kernels. The kernel does not apply to the noise signals, which
+ * then run once per kernel with the same result.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignalGeneratorBenchmark {
+
+    @Param({ "sine", "square", "sawtooth", "gaussian", "noise" })
+    private String signal;
+
+    @Param({ "1000", "100000", "1000000" })
+    private int sampleCount;
+
+    @Param({ "scalar", "vector", "auto", "table" })
+    private String kernel;
+
+    private Signal generator;
+    private double[] buffer;
+    private Instant instant;
+
+    @Setup
+    public void setup() {
+        generator = ScopeChannelConfig.parse("scope:" + signal + ":n=" + sampleCount + ":kernel=" + kernel)
+                .createSignal();
+        buffer = new double[generator.getSampleCount()];
+        instant = Instant.now();
+    }
+
+    @Benchmark
+    public double[] fill() {
+        generator.fill(instant, buffer);
+        return buffer;
+    }
+}
@@ -80,10 +80,32 @@ public class Mapper {
         }
     }
 
+    /**
+     * Creates a mapper sharing the index mapping and copy structure type of the
+     * given one, with its own copy structure.
+     *
+     * @param mapper
+     *            the mapper to share the mapping of
+     */
+    public Mapper(Mapper mapper) {
+        this.originStructure = mapper.originStructure;
+        this.copyStructure = pvDataCreate.createPVStructure(mapper.copyStructure.getStructure());
+        this.toOriginStructure = mapper.toOriginStructure;
+        this.toCopyStructure = mapper.toCopyStructure;
+    }
+
     public PVStructure getCopyStructure() {
         return copyStructure;
     }
 
+    /**
+     * @return a new structure of the same type as the copy structure, to be
+     *         filled with {@link #updateCopyStructureOriginBitSet(PVStructure, BitSet, BitSet)}
+     */
+    public PVStructure createCopyStructure() {
+        return pvDataCreate.createPVStructure(copyStructure.getStructure());
+    }
+
     public int getCopyStructureIndex(int ix) {
         return toCopyStructure[ix];
     }
@@ -159,6 +181,10 @@ public class Mapper {
     }
 
     public void updateCopyStructureOriginBitSet(BitSet originStructureBitSet, BitSet copyBitSet) {
+        updateCopyStructureOriginBitSet(copyStructure, originStructureBitSet, copyBitSet);
+    }
+
+    public void updateCopyStructureOriginBitSet(PVStructure copyStructure, BitSet originStructureBitSet, BitSet copyBitSet) {
         copyBitSet.clear();
         boolean doAll = originStructureBitSet.get(0);
         if (doAll) {
@@ -181,12 +207,59 @@ public class Mapper {
                     i = originStructureBitSet.nextSetBit(originField.getNextFieldOffset());
                 } else {
                     final PVField originField = originStructure.getSubField(i);
+                    // only some subfields of the changed structure are requested
+                    for (int j = i + 1; j < originField.getNextFieldOffset();) {
+                        final PVField originSubField = originStructure.getSubField(j);
+                        if (toCopyStructure[j] != -1) {
+                            copyBitSet.set(toCopyStructure[j]);
+                            convert.copy(originSubField, copyStructure.getSubField(toCopyStructure[j]));
+                            j = originSubField.getNextFieldOffset();
+                        } else {
+                            j++;
+                        }
+                    }
                     i = originStructureBitSet.nextSetBit(originField.getNextFieldOffset());
                 }
             }
         }
     }
 
+    /**
+     * Computes the bits of the copy structure affected by the given changes of
+     * the origin structure, without copying anything.
+     *
+     * @param originStructureBitSet
+     *            the changed fields of the origin structure
+     * @param copyBitSet
+     *            set to the matching fields of the copy structure
+     */
+    public void mapOriginBitSet(BitSet originStructureBitSet, BitSet copyBitSet) {
+        copyBitSet.clear();
+        if (originStructureBitSet.get(0)) {
+            copyBitSet.set(0);
+            return;
+        }
+        int i = originStructureBitSet.nextSetBit(1);
+        while (i != -1) {
+            final PVField originField = originStructure.getSubField(i);
+            int toCopyIndex = toCopyStructure[i];
+            if (toCopyIndex != -1) {
+                copyBitSet.set(toCopyIndex);
+            } else {
+                // only some subfields of the changed structure are requested
+                for (int j = i + 1; j < originField.getNextFieldOffset();) {
+                    if (toCopyStructure[j] != -1) {
+                        copyBitSet.set(toCopyStructure[j]);
+                        j = originStructure.getSubField(j).getNextFieldOffset();
+                    } else {
+                        j++;
+                    }
+                }
+            }
+            i = originStructureBitSet.nextSetBit(originField.getNextFieldOffset());
+        }
+    }
+
     private static void addMapping(PVField pvRecordField, ArrayList<Integer> indexMapping) {
         if (pvRecordField.getField().getType() == Type.structure) {
             indexMapping.add(pvRecordField.getFieldOffset());
@@ -263,6 +336,7 @@ public class Mapper {
             String[] fieldNames = new String[1];
             fieldNames[0] = pvRecordField.getFieldName();
             if (number == 0) {
+                addMapping(pvRecordField, indexMapping);
                 fields[0] = pvRecordField.getField();
             } else {
                 fields[0] = createField((PVStructure) pvRecordField, indexMapping, pvSubFrom);
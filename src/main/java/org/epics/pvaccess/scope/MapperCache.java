@@ -0,0 +1,112 @@
+package org.epics.pvaccess.scope;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVStructure;
+
+/**
+ * Caches the {@link Mapper} and the {@link ScopeSnapshotPool snapshots} of each
+ * distinct pvRequest made on a structure.
+ * <p>
+ * Parsing a pvRequest into an index mapping and a copy structure type is done
+ * once per distinct request; every further request with the same field
+ * selection gets a {@link Mapper} sharing the computed mapping and
+ * introspection structure, with only its own copy structure. Requests differing
+ * only by their options (e.g. <code>record[queueSize=4]</code>) share one
+ * entry.
+ */
+public class MapperCache {
+    private final ScopePvStructure scopePvStructure;
+    private final PVStructure originStructure;
+    private final ConcurrentHashMap<String, ScopeSnapshotPool> shapes = new ConcurrentHashMap<String, ScopeSnapshotPool>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public MapperCache(ScopePvStructure scopePvStructure) {
+        this.scopePvStructure = scopePvStructure;
+        this.originStructure = scopePvStructure.getPVStructure();
+    }
+
+    /**
+     * @param pvRequest
+     *            the pvRequest
+     * @return a new mapper for the request, with its own copy structure
+     */
+    public Mapper getMapper(PVStructure pvRequest) {
+        return new Mapper(getSnapshotPool(pvRequest, null).getMapper());
+    }
+
+    /**
+     * @param pvRequest
+     *            the pvRequest
+     * @param decimator
+     *            the reduction of the signal requested, may be
+     *            <code>null</code>
+     * @return the snapshots shared by all the requests of the same shape and
+     *         reduction
+     */
+    public ScopeSnapshotPool getSnapshotPool(PVStructure pvRequest, ScopeDecimator decimator) {
+        String key = getKey(pvRequest);
+        if (decimator != null)
+            key += decimator.getKey();
+        ScopeSnapshotPool pool = shapes.get(key);
+        if (pool != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            pool = new ScopeSnapshotPool(scopePvStructure, new Mapper(originStructure, pvRequest), decimator);
+            ScopeSnapshotPool existing = shapes.putIfAbsent(key, pool);
+            if (existing != null)
+                pool = existing;
+        }
+        return pool;
+    }
+
+    /**
+     * @return the number of requests served from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of requests that had to be parsed
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of distinct requests in the cache
+     */
+    public int size() {
+        return shapes.size();
+    }
+
+    /**
+     * @param pvRequest
+     *            the pvRequest
+     * @return the field selection of the request, in request order and without
+     *         the options
+     */
+    static String getKey(PVStructure pvRequest) {
+        StringBuilder key = new StringBuilder();
+        appendKey(key, pvRequest);
+        return key.toString();
+    }
+
+    private static void appendKey(StringBuilder key, PVStructure pvStructure) {
+        key.append('{');
+        for (PVField pvField : pvStructure.getPVFields()) {
+            if (pvField.getFieldName().equals("_options"))
+                continue;
+            key.append(pvField.getFieldName());
+            if (pvField instanceof PVStructure)
+                appendKey(key, (PVStructure) pvField);
+            key.append(',');
+        }
+        key.append('}');
+    }
+}
@@ -0,0 +1,546 @@
+package org.epics.pvaccess.scope;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.epics.pvaccess.scope.SignalGenerator.Signal;
+
+/**
+ * The generator parameters of a scope channel, parsed from its name.
+ * <p>
+ * Besides the plain signal names (e.g. <code>sine</code>) a channel name can
+ * carry the parameters of its generator as colon separated
+ * <code>key=value</code> pairs following the signal type, e.g.
+ * <code>scope:sine:n=1000000:rate=1kHz:period=0.5</code>. The supported keys
+ * are
+ * <ul>
+ * <li><code>n</code> the number of samples in each frame</li>
+ * <li><code>rate</code> the update rate, in Hz unless suffixed with
+ * <code>Hz</code>, <code>kHz</code> or <code>MHz</code> (case-sensitive, so
+ * that <code>mHz</code> is not read as MHz), at most one update
+ * per tick of the {@link ScopeScheduler} (1 kHz with the default
+ * <code>scope.tickMicros</code>)</li>
+ * <li><code>period</code> the period of the signal in seconds</li>
+ * <li><code>wavelength</code> the wavelength of the signal in samples</li>
+ * <li><code>stdDev</code> the width of the gaussian</li>
+ * <li><code>min</code> and <code>max</code> the range of the noise, finite and
+ * with <code>min</code> below <code>max</code></li>
+ * <li><code>dist</code> the distribution of the noise, <code>uniform</code>,
+ * <code>gaussian</code> (the default), <code>pink</code> or
+ * <code>brown</code></li>
+ * <li><code>seed</code> the seed of the noise, to generate the same frames on
+ * every run, or <code>random</code> (the default)</li>
+ * <li><code>history</code> the number of past frames kept for the history
+ * RPC, none by default</li>
+ * <li><code>record</code> <code>true</code> to record the frames to disk, see
+ * {@link ScopeRecorder}</li>
+ * <li><code>kernel</code> the inner loops of the sine, square and sawtooth
+ * waves, <code>scalar</code>, <code>vector</code> or <code>auto</code> (the
+ * default) for the fastest available, see {@link WaveformKernels}, or
+ * <code>table</code> to copy the frames from a table of one period</li>
+ * </ul>
+ * The <code>replay</code> signal type replays a recording instead of
+ * generating a signal, e.g.
+ * <code>scope:replay:source=scope_sine_n_1000_..._record_true:speed=10</code>,
+ * with the keys
+ * <ul>
+ * <li><code>source</code> the prefix of the segment files in the
+ * <code>scope.recordDir</code> directory, without any path separator or
+ * <code>..</code></li>
+ * <li><code>speed</code> the replay speed, 1 by default, or <code>max</code>
+ * to replay as fast as possible, see {@link ScopeReplay}</li>
+ * </ul>
+ * Parameters that are not given keep their default value. Two names with the
+ * same parameters have the same {@link #getKey() key} and share one live
+ * structure.
+ * <p>
+ * The server limits what the clients can ask for: <code>n</code> is at most
+ * <code>scope.maxSamples</code> (16777216 by default), the history of a
+ * channel at most <code>scope.maxHistoryMB</code> MiB of samples (512 by
+ * default), and <code>record=true</code> and <code>replay</code> are refused
+ * unless the server runs with <code>scope.allowRecord</code> and
+ * <code>scope.allowReplay</code> set to <code>true</code>.
+ */
+public class ScopeChannelConfig {
+
+    static final String PREFIX = ScopeChannelProviderImpl.PROVIDER_NAME;
+
+    static final String SAWTOOTH = "sawtooth";
+    static final String GAUSSIAN = "gaussian";
+    static final String SINE = "sine";
+    static final String SQUARE = "square";
+    static final String NOISE = "noise";
+    static final String REPLAY = "replay";
+
+    static final Set<String> SIGNAL_TYPES = new HashSet<String>(
+            Arrays.asList(SAWTOOTH, GAUSSIAN, SINE, SQUARE, NOISE, REPLAY));
+
+    static final int MAX_SAMPLES = Integer.getInteger("scope.maxSamples", 1 << 24);
+    static final long MAX_HISTORY_BYTES = Long.getLong("scope.maxHistoryMB", 512L) << 20;
+    /**
+     * The highest update rate in Hz, one update per tick of the timing wheel
+     * of the {@link ScopeScheduler}, which skips the runs it misses.
+     */
+    static final double MAX_RATE = TimeUnit.SECONDS.toMicros(1) / (double) Long.getLong("scope.tickMicros", 1000L);
+    static final boolean ALLOW_RECORD = Boolean.getBoolean("scope.allowRecord");
+    static final boolean ALLOW_REPLAY = Boolean.getBoolean("scope.allowReplay");
+
+    private final String signalType;
+    private final String descriptor;
+    private int sampleCount = 100;
+    private double rate = 10.0;
+    private double period = 1.0;
+    private double wavelength = 100.0;
+    private double stdDev = 100.0;
+    private double min = 1.0;
+    private double max = 100.0;
+    private int historySize = 0;
+    private boolean recorded = false;
+    private String kernel = WaveformKernels.AUTO;
+    private String distribution = SignalGenerator.NoiseWaveform.GAUSSIAN;
+    private Long seed = null;
+    private String source = null;
+    private double speed = 1.0;
+
+    private ScopeChannelConfig(String signalType, String descriptor) {
+        this.signalType = signalType;
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * Parses the generator parameters of a channel name.
+     *
+     * @param channelName
+     *            the channel name
+     * @return the parameters of the channel
+     * @throws IllegalArgumentException
+     *             if the name is not a scope channel name or a parameter is
+     *             invalid
+     */
+    public static ScopeChannelConfig parse(String channelName) {
+        if (channelName.equals(REPLAY))
+            throw new IllegalArgumentException("no source to replay: " + channelName);
+        if (SIGNAL_TYPES.contains(channelName))
+            return new ScopeChannelConfig(channelName, channelName);
+
+        if (!channelName.startsWith(PREFIX))
+            throw new IllegalArgumentException("not a scope channel: " + channelName);
+
+        if (!channelName.startsWith(PREFIX + ":")) {
+            // legacy names, a default sawtooth named after the channel
+            return new ScopeChannelConfig(SAWTOOTH, channelName);
+        }
+
+        String[] tokens = channelName.split(":", -1);
+        if (tokens.length < 2 || !SIGNAL_TYPES.contains(tokens[1]))
+            throw new IllegalArgumentException("unknown signal type in channel: " + channelName);
+
+        ScopeChannelConfig config = new ScopeChannelConfig(tokens[1], tokens[1]);
+        for (int i = 2; i < tokens.length; i++) {
+            int ind = tokens[i].indexOf('=');
+            if (ind <= 0)
+                throw new IllegalArgumentException("invalid parameter '" + tokens[i] + "' in channel: " + channelName);
+            config.set(tokens[i].substring(0, ind), tokens[i].substring(ind + 1));
+        }
+        if (config.signalType.equals(REPLAY) && config.source == null)
+            throw new IllegalArgumentException("no source to replay: " + channelName);
+        config.checkLimits();
+        return config;
+    }
+
+    private ScopeChannelConfig(ScopeChannelConfig config) {
+        this.signalType = config.signalType;
+        this.descriptor = config.descriptor;
+        this.sampleCount = config.sampleCount;
+        this.rate = config.rate;
+        this.period = config.period;
+        this.wavelength = config.wavelength;
+        this.stdDev = config.stdDev;
+        this.min = config.min;
+        this.max = config.max;
+        this.historySize = config.historySize;
+        this.recorded = config.recorded;
+        this.kernel = config.kernel;
+        this.distribution = config.distribution;
+        this.seed = config.seed;
+        this.source = config.source;
+        this.speed = config.speed;
+    }
+
+    /**
+     * @param parameters
+     *            the parameters to change, with the keys of the channel names
+     * @return a copy of this parameter set with the given parameters changed
+     * @throws IllegalArgumentException
+     *             if a parameter is unknown or invalid
+     */
+    public ScopeChannelConfig with(Map<String, String> parameters) {
+        ScopeChannelConfig config = new ScopeChannelConfig(this);
+        for (Map.Entry<String, String> parameter : parameters.entrySet())
+            config.set(parameter.getKey(), parameter.getValue());
+        config.checkLimits();
+        return config;
+    }
+
+    /**
+     * Checks the parameters against the limits of the server.
+     */
+    private void checkLimits() {
+        if (signalType.equals(REPLAY) && !ALLOW_REPLAY)
+            throw new IllegalArgumentException("replay is disabled on this server");
+        if (!(min < max))
+            throw new IllegalArgumentException("min must be less than max");
+        checkHistory(historySize, sampleCount);
+    }
+
+    /**
+     * Checks that a history fits in the <code>scope.maxHistoryMB</code> budget.
+     *
+     * @param capacity
+     *            the number of frames kept
+     * @param sampleCount
+     *            the number of samples of each frame
+     * @throws IllegalArgumentException
+     *             if the history is too large
+     */
+    static void checkHistory(int capacity, int sampleCount) {
+        if ((long) capacity * sampleCount > MAX_HISTORY_BYTES / Double.BYTES)
+            throw new IllegalArgumentException("history of " + capacity + " frames of " + sampleCount
+                    + " samples exceeds " + (MAX_HISTORY_BYTES >> 20) + " MiB");
+    }
+
+    /**
+     * Checks that a reconfiguration only changes the parameters that apply to
+     * the signal type, and none of those that are only read when the channel
+     * is created.
+     *
+     * @param next
+     *            the new parameter set
+     * @throws IllegalArgumentException
+     *             if a changed parameter does not apply
+     */
+    void checkChange(ScopeChannelConfig next) {
+        boolean replay = signalType.equals(REPLAY);
+        boolean periodic = signalType.equals(SINE) || signalType.equals(SQUARE) || signalType.equals(SAWTOOTH);
+        boolean noise = signalType.equals(NOISE);
+        checkChange("n", next.sampleCount != sampleCount, !replay);
+        checkChange("rate", next.rate != rate, !replay);
+        checkChange("period", next.period != period, !replay && !noise);
+        checkChange("wavelength", next.wavelength != wavelength, periodic);
+        checkChange("kernel", !next.kernel.equals(kernel), periodic);
+        checkChange("stdDev", next.stdDev != stdDev, signalType.equals(GAUSSIAN));
+        checkChange("min", next.min != min, noise);
+        checkChange("max", next.max != max, noise);
+        checkChange("dist", !next.distribution.equals(distribution), noise);
+        checkChange("seed", !Objects.equals(next.seed, seed), noise);
+        checkChange("speed", next.speed != speed, replay);
+        if (!Objects.equals(next.source, source) || next.historySize != historySize || next.recorded != recorded)
+            throw new IllegalArgumentException("source, history and record cannot be changed on a running channel");
+    }
+
+    private void checkChange(String key, boolean changed, boolean applies) {
+        if (changed && !applies)
+            throw new IllegalArgumentException(key + " does not apply to a " + signalType + " signal");
+    }
+
+    private void set(String key, String value) {
+        switch (key) {
+        case "n":
+            sampleCount = Integer.parseInt(value);
+            if (sampleCount <= 0)
+                throw new IllegalArgumentException("Number of sample must be a positive integer.");
+            if (sampleCount > MAX_SAMPLES)
+                throw new IllegalArgumentException("n must be at most " + MAX_SAMPLES);
+            break;
+        case "rate":
+            rate = parseRate(value);
+            if (rate > MAX_RATE)
+                throw new IllegalArgumentException("rate must be at most " + MAX_RATE
+                        + " Hz, the tick rate of the server");
+            break;
+        case "period":
+            period = parsePositive(key, value);
+            break;
+        case "wavelength":
+            wavelength = parsePositive(key, value);
+            break;
+        case "stdDev":
+            stdDev = parsePositive(key, value);
+            break;
+        case "min":
+            min = parseFinite(key, value);
+            break;
+        case "max":
+            max = parseFinite(key, value);
+            break;
+        case "history":
+            historySize = Integer.parseInt(value);
+            if (historySize < 0)
+                throw new IllegalArgumentException("history must not be negative");
+            break;
+        case "record":
+            if (!value.equals("true") && !value.equals("false"))
+                throw new IllegalArgumentException("record must be true or false");
+            recorded = Boolean.parseBoolean(value);
+            if (recorded && !ALLOW_RECORD)
+                throw new IllegalArgumentException("recording is disabled on this server");
+            break;
+        case "kernel":
+            if (!value.equals(WaveformKernels.TABLE_NAME))
+                WaveformKernels.forName(value);
+            kernel = value;
+            break;
+        case "dist":
+            if (!SignalGenerator.NoiseWaveform.isDistribution(value))
+                throw new IllegalArgumentException("unknown noise distribution: " + value);
+            distribution = value;
+            break;
+        case "seed":
+            seed = value.equals("random") ? null : Long.valueOf(value);
+            break;
+        case "source":
+            if (value.isEmpty())
+                throw new IllegalArgumentException("source must not be empty");
+            if (value.indexOf('/') >= 0 || value.indexOf('\\') >= 0 || value.contains(".."))
+                throw new IllegalArgumentException("source must be a file prefix in the recording directory: " + value);
+            source = value;
+            break;
+        case "speed":
+            speed = value.equals("max") ? Double.POSITIVE_INFINITY : parsePositive(key, value);
+            break;
+        default:
+            throw new IllegalArgumentException("unknown parameter: " + key);
+        }
+    }
+
+    private static double parsePositive(String key, String value) {
+        double v = Double.parseDouble(value);
+        if (!(v > 0) || Double.isInfinite(v))
+            throw new IllegalArgumentException(key + " must be positive");
+        return v;
+    }
+
+    private static double parseFinite(String key, String value) {
+        double v = Double.parseDouble(value);
+        if (Double.isNaN(v) || Double.isInfinite(v))
+            throw new IllegalArgumentException(key + " must be finite");
+        return v;
+    }
+
+    /**
+     * Parses a rate such as <code>10</code>, <code>10Hz</code> or
+     * <code>1kHz</code>. The suffixes are case-sensitive: <code>5mHz</code>
+     * would be five millihertz, which is refused rather than read as 5 MHz.
+     *
+     * @param value
+     *            the rate
+     * @return the rate in Hz
+     * @throws IllegalArgumentException
+     *             if the rate is not a positive number of Hz, kHz or MHz
+     */
+    static double parseRate(String value) {
+        String v = value.trim();
+        double multiplier = 1.0;
+        if (v.endsWith("kHz")) {
+            multiplier = 1e3;
+            v = v.substring(0, v.length() - 3);
+        } else if (v.endsWith("MHz")) {
+            multiplier = 1e6;
+            v = v.substring(0, v.length() - 3);
+        } else if (v.endsWith("Hz")) {
+            v = v.substring(0, v.length() - 2);
+        }
+        // e.g. 5mHz or 5khz, and the d or f suffixes Double accepts
+        if (v.isEmpty() || (!Character.isDigit(v.charAt(v.length() - 1)) && !v.endsWith(".")))
+            throw new IllegalArgumentException("rate must be a number of Hz, kHz or MHz: " + value);
+        return parsePositive("rate", v) * multiplier;
+    }
+
+    /**
+     * @return the key identifying this parameter set; channels with the same key
+     *         share one live structure
+     */
+    public String getKey() {
+        StringBuilder key = new StringBuilder(PREFIX).append(':').append(signalType);
+        if (!descriptor.equals(signalType))
+            key.append(":descriptor=").append(descriptor);
+        key.append(":n=").append(sampleCount)
+           .append(":rate=").append(rate).append("Hz")
+           .append(":period=").append(period)
+           .append(":wavelength=").append(wavelength)
+           .append(":stdDev=").append(stdDev)
+           .append(":min=").append(min)
+           .append(":max=").append(max)
+           .append(":history=").append(historySize)
+           .append(":record=").append(recorded)
+           .append(":kernel=").append(kernel)
+           .append(":dist=").append(distribution)
+           .append(":seed=").append((seed != null) ? seed.toString() : "random");
+        if (signalType.equals(REPLAY))
+            key.append(":source=").append(source)
+               .append(":speed=").append(Double.isInfinite(speed) ? "max" : String.valueOf(speed));
+        return key.toString();
+    }
+
+    public String getSignalType() {
+        return signalType;
+    }
+
+    /**
+     * @return the name of the signal in the structure
+     */
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the update rate in Hz
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the period of the signal in seconds
+     */
+    public double getPeriod() {
+        return period;
+    }
+
+    /**
+     * @return the wavelength of the signal in samples
+     */
+    public double getWavelength() {
+        return wavelength;
+    }
+
+    /**
+     * @return the width of the gaussian
+     */
+    public double getStdDev() {
+        return stdDev;
+    }
+
+    /**
+     * @return the minimum of the noise
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * @return the maximum of the noise
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return the number of past frames kept, 0 if the history is disabled
+     */
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    /**
+     * @return true if the frames are recorded to disk
+     */
+    public boolean isRecorded() {
+        return recorded;
+    }
+
+    /**
+     * @return the name of the kernel of the periodic waves
+     */
+    public String getKernel() {
+        return kernel;
+    }
+
+    /**
+     * @return the distribution of the noise
+     */
+    public String getDistribution() {
+        return distribution;
+    }
+
+    /**
+     * @return the seed of the noise, or <code>null</code> for a random one
+     */
+    public Long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return the prefix of the replayed segment files, or <code>null</code>
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the replay speed, {@link Double#POSITIVE_INFINITY} for as fast
+     *         as possible
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return the time between two updates in nanoseconds
+     */
+    public long getUpdatePeriodNanos() {
+        return Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / rate));
+    }
+
+    /**
+     * @return a new generator for this parameter set
+     * @throws IllegalArgumentException
+     *             if the recording to replay cannot be read
+     */
+    public Signal createSignal() {
+        double n = sampleCount;
+        double updateRateInSeconds = 1.0 / rate;
+        if (kernel.equals(WaveformKernels.TABLE_NAME)
+                && (signalType.equals(SINE) || signalType.equals(SQUARE) || signalType.equals(SAWTOOTH)))
+            return SignalGenerator.generatePeriodTableWaveform(signalType, period, wavelength, n, updateRateInSeconds);
+        switch (signalType) {
+        case REPLAY:
+            try {
+                Path directory = Paths.get(System.getProperty("scope.recordDir", "recordings"));
+                return new ScopeReplay(directory, source, speed);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("cannot replay " + source + ": " + e.getMessage());
+            }
+        case GAUSSIAN:
+            return SignalGenerator.generateGaussianWaveform(period, stdDev, n, updateRateInSeconds);
+        case SINE:
+            return SignalGenerator.generateSineWaveform(period, wavelength, n, updateRateInSeconds,
+                    WaveformKernels.forName(kernel));
+        case SQUARE:
+            return SignalGenerator.generateSquareWaveform(period, wavelength, n, updateRateInSeconds,
+                    WaveformKernels.forName(kernel));
+        case NOISE:
+            return SignalGenerator.generateNoiseWaveform(min, max, n, updateRateInSeconds, distribution, seed);
+        case SAWTOOTH:
+        default:
+            return SignalGenerator.generateSawtoothWaveform(period, wavelength, n, updateRateInSeconds,
+                    WaveformKernels.forName(kernel));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
@@ -1,9 +1,16 @@
 package org.epics.pvaccess.scope;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -31,30 +38,70 @@ import org.epics.pvaccess.client.ChannelRequest;
 import org.epics.pvaccess.client.ChannelRequester;
 import org.epics.pvaccess.client.GetFieldRequester;
 import org.epics.pvaccess.scope.ScopePvStructure.ScopePvStructureListener;
+import org.epics.pvdata.factory.ConvertFactory;
 import org.epics.pvdata.misc.BitSet;
 import org.epics.pvdata.monitor.Monitor;
 import org.epics.pvdata.monitor.MonitorElement;
 import org.epics.pvdata.monitor.MonitorRequester;
+import org.epics.pvdata.pv.DoubleArrayData;
 import org.epics.pvdata.pv.Field;
+import org.epics.pvdata.pv.Convert;
 import org.epics.pvdata.pv.MessageType;
+import org.epics.pvdata.pv.PVArray;
+import org.epics.pvdata.pv.PVDoubleArray;
 import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVInt;
+import org.epics.pvdata.pv.PVScalar;
+import org.epics.pvdata.pv.PVLong;
 import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.PVStructureArray;
 import org.epics.pvdata.pv.ScalarType;
 import org.epics.pvdata.pv.Status;
 import org.epics.pvdata.pv.Status.StatusType;
 import org.epics.pvdata.pv.StatusCreate;
+import org.epics.pvdata.pv.Structure;
+import org.epics.pvdata.pv.StructureArrayData;
 
 public class ScopeChannelProviderImpl implements ChannelProvider {
 
     public static final String PROVIDER_NAME = "scope";
-    private static final String[] HOSTED_CHANNELS = new String[] { "sawtooth", "gaussian", "sine", "square", "noise"};
+    private static final String[] HOSTED_CHANNELS = new String[] { "sawtooth", "gaussian", "sine", "square", "noise",
+            ScopeStatsChannel.CHANNEL_NAME };
     private static final Set<String> HOSTED_CHANNELS_SET = new HashSet<String>(Arrays.asList(HOSTED_CHANNELS));
 
+    private static final int DEFAULT_QUEUE_SIZE = 2;
+    private static final int MAX_QUEUE_SIZE = 100;
+
     private static final StatusCreate statusCreate = PVFactory.getStatusCreate();
+    private static final Convert convert = ConvertFactory.getConvert();
     private static final Status channelNotFoundStatus = statusCreate.createStatus(StatusType.ERROR, "channel not found", null);
     private static final Status okStatus = statusCreate.getStatusOK();
     private static final Status fieldDoesNotExistStatus = statusCreate.createStatus(StatusType.ERROR, "field does not exist", null);
     private static final Status destroyedStatus = statusCreate.createStatus(StatusType.ERROR, "channel destroyed", null);
+    private static final Status readOnlyConfigStatus = statusCreate.createStatus(StatusType.ERROR, "only the config fields can be written", null);
+    private static final Status putMismatchStatus = statusCreate.createStatus(StatusType.ERROR, "put structure does not match", null);
+    private static final Status noHistoryStatus = statusCreate.createStatus(StatusType.ERROR, "no history kept for this channel, see the history parameter", null);
+    private static final Status readOnlyStatus = statusCreate.createStatus(StatusType.ERROR, "the signal is read only", null);
+    private static final Status invalidSliceStatus = statusCreate.createStatus(StatusType.ERROR, "offset must not be negative and stride must be positive", null);
+
+    /**
+     * A live structure shared by all the channels and monitors connected to the
+     * same channel name, together with the number of references held on it.
+     * The structure is created by the first channel outside the lock of the
+     * provider, the other channels wait for it.
+     */
+    private static class SharedStructure {
+        private final CompletableFuture<ScopePvStructure> created = new CompletableFuture<ScopePvStructure>();
+        private int references = 0;
+    }
+
+    // guarded by this
+    private final Map<String, SharedStructure> structures = new HashMap<String, SharedStructure>();
+    // the structures being stopped, a new structure with the same key waits for
+    // its predecessor to close the recording; guarded by this
+    private final Map<String, CompletableFuture<Void>> stopping = new HashMap<String, CompletableFuture<Void>>();
+
+    private final ScopeStatsChannel statsChannel = new ScopeStatsChannel(this, this::getStructures);
 
     public ScopeChannelProviderImpl()
     {
@@ -122,6 +169,7 @@ public class ScopeChannelProviderImpl implements ChannelProvider {
         public void destroy() {
             if (destroyed.getAndSet(true) == false) {
                 destroyRequests();
+                releaseTopStructure(scopePvStructure);
 
                 setConnectionState(ConnectionState.DISCONNECTED);
                 setConnectionState(ConnectionState.DESTROYED);
@@ -185,14 +233,36 @@ public class ScopeChannelProviderImpl implements ChannelProvider {
 
         @Override
         public ChannelGet createChannelGet(ChannelGetRequester channelGetRequester, PVStructure pvRequest) {
-            // TODO Auto-generated method stub
-            return null;
+
+            if (channelGetRequester == null)
+                throw new IllegalArgumentException("channelGetRequester");
+
+            if (pvRequest == null)
+                throw new IllegalArgumentException("pvRequest");
+
+            if (destroyed.get()) {
+                channelGetRequester.channelGetConnect(destroyedStatus, null, null);
+                return null;
+            }
+
+            return new ScopeChannelGetImpl(scopePvStructure, channelGetRequester, pvRequest);
         }
 
         @Override
         public ChannelPut createChannelPut(ChannelPutRequester channelPutRequester, PVStructure pvRequest) {
-            // TODO Auto-generated method stub
-            return null;
+
+            if (channelPutRequester == null)
+                throw new IllegalArgumentException("channelPutRequester");
+
+            if (pvRequest == null)
+                throw new IllegalArgumentException("pvRequest");
+
+            if (destroyed.get()) {
+                channelPutRequester.channelPutConnect(destroyedStatus, null, null);
+                return null;
+            }
+
+            return new ScopeChannelPutImpl(scopePvStructure, channelPutRequester, pvRequest);
         }
 
         @Override
@@ -203,8 +273,21 @@ public class ScopeChannelProviderImpl implements ChannelProvider {
 
         @Override
         public ChannelRPC createChannelRPC(ChannelRPCRequester channelRPCRequester, PVStructure pvRequest) {
-            // TODO Auto-generated method stub
-            return null;
+
+            if (channelRPCRequester == null)
+                throw new IllegalArgumentException("channelRPCRequester");
+
+            if (destroyed.get()) {
+                channelRPCRequester.channelRPCConnect(destroyedStatus, null);
+                return null;
+            }
+
+            if (scopePvStructure.getHistory() == null) {
+                channelRPCRequester.channelRPCConnect(noHistoryStatus, null);
+                return null;
+            }
+
+            return new ScopeChannelRPCImpl(scopePvStructure, channelRPCRequester);
         }
 
         @Override
@@ -221,13 +304,39 @@ public class ScopeChannelProviderImpl implements ChannelProvider {
                 return null;
             }
 
-            return new ScopeChannelMonitorImpl(scopePvStructure, monitorRequester, pvRequest);
+            ScopeDecimator decimator;
+            long minUpdatePeriodNanos = 0;
+            try {
+                decimator = ScopeDecimator.fromRequest(pvRequest);
+                String maxRate = ScopeRequestOptions.getRecordOption(pvRequest, "maxRate");
+                if (maxRate != null)
+                    minUpdatePeriodNanos = Math.round(TimeUnit.SECONDS.toNanos(1) / ScopeChannelConfig.parseRate(maxRate));
+            } catch (NumberFormatException e) {
+                monitorRequester.monitorConnect(statusCreate.createStatus(StatusType.ERROR, "invalid maxRate", null),
+                        null, null);
+                return null;
+            } catch (IllegalArgumentException e) {
+                monitorRequester.monitorConnect(statusCreate.createStatus(StatusType.ERROR, e.getMessage(), null),
+                        null, null);
+                return null;
+            }
+
+            return new ScopeChannelMonitorImpl(scopePvStructure, monitorRequester, pvRequest, decimator,
+                    minUpdatePeriodNanos);
         }
 
         @Override
         public ChannelArray createChannelArray(ChannelArrayRequester channelArrayRequester, PVStructure pvRequest) {
-            // TODO Auto-generated method stub
-            return null;
+
+            if (channelArrayRequester == null)
+                throw new IllegalArgumentException("channelArrayRequester");
+
+            if (destroyed.get()) {
+                channelArrayRequester.channelArrayConnect(destroyedStatus, null, null);
+                return null;
+            }
+
+            return new ScopeChannelArrayImpl(scopePvStructure, channelArrayRequester);
         }
 
         public void registerRequest(ChannelRequest request) {
@@ -261,7 +370,7 @@ public class ScopeChannelProviderImpl implements ChannelProvider {
                 this.channel = channel;
                 this.scopePvStructure = scopePvStructure;
                 if (pvRequest != null)
-                    mapper = new Mapper(scopePvStructure.getPVStructure(), pvRequest);
+                    mapper = scopePvStructure.getMapperCache().getMapper(pvRequest);
                 else
                     mapper = null;
                 registerRequest(this);
@@ -330,73 +439,632 @@ public class ScopeChannelProviderImpl implements ChannelProvider {
                     return;
                 }
 
+                // process on the event loop of the structure, never concurrently with its ticks
+                scopePvStructure.execute(() -> {
+                    scopePvStructure.process();
+
+                    channelProcessRequester.processDone(okStatus, this);
+
+                    if (lastRequest)
+                        destroy();
+                });
+            }
+        }
+
+        class ScopeChannelGetImpl extends ScopeBasicChannelRequest implements ChannelGet {
+            private final ChannelGetRequester channelGetRequester;
+            private final PVStructure pvGetStructure;
+            private final BitSet bitSet;
+            private final BitSet frameBitSet; // the fields of the copy updated by a frame
+
+            // the fields of the copy updated by a frame, null if not requested
+            private final PVDoubleArray pvValue;
+            private final PVLong pvSecondsPastEpoch;
+            private final PVInt pvNanoseconds;
+
+            // guarded by lock
+            private long lastVersion = -1;
+            private long configVersion;
+
+            public ScopeChannelGetImpl(ScopePvStructure scopePvStructure,
+                                       ChannelGetRequester channelGetRequester,
+                                       PVStructure pvRequest) {
+                super(ScopeChannelImpl.this, scopePvStructure, pvRequest);
+
+                this.channelGetRequester = channelGetRequester;
+
+                pvGetStructure = mapper.getCopyStructure();
+                bitSet = new BitSet(pvGetStructure.getNumberFields());
+                frameBitSet = new BitSet(pvGetStructure.getNumberFields());
+
+                // the rest of the copy only changes with the configuration
                 scopePvStructure.lock();
                 try {
-                    scopePvStructure.process();
+                    mapper.updateCopyStructure(null);
+                    configVersion = scopePvStructure.getConfigVersion();
                 } finally {
                     scopePvStructure.unlock();
                 }
 
-                channelProcessRequester.processDone(okStatus, this);
+                PVStructure origin = scopePvStructure.getPVStructure();
+                PVStructureArray pvSignal = (PVStructureArray) getCopyField(origin.getSubField("signal"));
+                if (pvSignal != null) {
+                    StructureArrayData data = new StructureArrayData();
+                    pvSignal.get(0, pvSignal.getLength(), data);
+                    pvValue = data.data[1].getSubField(PVDoubleArray.class, "value");
+                } else {
+                    pvValue = null;
+                }
+                pvSecondsPastEpoch = (PVLong) getCopyField(origin.getSubField("timeStamp.secondsPastEpoch"));
+                pvNanoseconds = (PVInt) getCopyField(origin.getSubField("timeStamp.nanoseconds"));
+
+                BitSet originBitSet = new BitSet(origin.getNumberFields());
+                originBitSet.set(origin.getSubField("signal").getFieldOffset());
+                originBitSet.set(origin.getSubField("timeStamp").getFieldOffset());
+                mapper.mapOriginBitSet(originBitSet, frameBitSet);
+
+                channelGetRequester.channelGetConnect(okStatus, this, pvGetStructure.getStructure());
+            }
+
+            private PVField getCopyField(PVField originField) {
+                int index = mapper.getCopyStructureIndex(originField.getFieldOffset());
+                return (index < 0) ? null : pvGetStructure.getSubField(index);
+            }
+
+            /**
+             * Copies the last published frame, never takes the lock of the
+             * structure nor delays its updates.
+             */
+            @Override
+            public void get() {
+                if (destroyed.get()) {
+                    channelGetRequester.getDone(destroyedStatus, this, null, null);
+                    return;
+                }
+
+                ScopePvStructure.Frame frame = scopePvStructure.acquireFrame();
+                lock();
+                try {
+                    bitSet.clear();
+                    if (frame != null && frame.getConfigVersion() != configVersion) {
+                        // reconfigured since the copy was made
+                        scopePvStructure.lock();
+                        try {
+                            mapper.updateCopyStructure(null);
+                            configVersion = scopePvStructure.getConfigVersion();
+                        } finally {
+                            scopePvStructure.unlock();
+                        }
+                        bitSet.set(0);
+                    }
+                    long version = (frame != null) ? frame.getVersion() : 0;
+                    if (version != lastVersion) {
+                        if (frame != null) {
+                            if (pvValue != null) {
+                                double[] values = frame.getValues();
+                                if (pvValue.getLength() != values.length)
+                                    pvValue.setLength(values.length);
+                                pvValue.put(0, values.length, values, 0);
+                            }
+                            if (pvSecondsPastEpoch != null)
+                                pvSecondsPastEpoch.put(frame.getSecondsPastEpoch());
+                            if (pvNanoseconds != null)
+                                pvNanoseconds.put(frame.getNanoseconds());
+                        }
+                        if (lastVersion == -1)
+                            bitSet.set(0); // first get gets all
+                        else
+                            bitSet.or(frameBitSet);
+                        lastVersion = version;
+                    }
+                } finally {
+                    unlock();
+                    if (frame != null)
+                        frame.release();
+                }
+
+                channelGetRequester.getDone(okStatus, this, pvGetStructure, bitSet);
+
+                if (lastRequest)
+                    destroy();
+            }
+        }
+
+        /**
+         * Writes the <code>config</code> fields of the structure, retuning the
+         * running generator; the other fields are read only.
+         */
+        class ScopeChannelPutImpl extends ScopeBasicChannelRequest implements ChannelPut {
+            private final ChannelPutRequester channelPutRequester;
+            private final PVStructure pvCopyStructure;
+            private final BitSet bitSet;
+            private final PVField pvConfig;
+
+            public ScopeChannelPutImpl(ScopePvStructure scopePvStructure,
+                                       ChannelPutRequester channelPutRequester,
+                                       PVStructure pvRequest) {
+                super(ScopeChannelImpl.this, scopePvStructure, pvRequest);
+
+                this.channelPutRequester = channelPutRequester;
+
+                pvCopyStructure = mapper.getCopyStructure();
+                bitSet = new BitSet(pvCopyStructure.getNumberFields());
+                pvConfig = scopePvStructure.getPVStructure().getSubField("config");
+
+                channelPutRequester.channelPutConnect(okStatus, this, pvCopyStructure.getStructure());
+            }
+
+            @Override
+            public void put(PVStructure pvPutStructure, BitSet putBitSet) {
+                if (destroyed.get()) {
+                    channelPutRequester.putDone(destroyedStatus, this);
+                    return;
+                }
+
+                if (!pvPutStructure.getStructure().equals(pvCopyStructure.getStructure())
+                        || putBitSet.size() < pvCopyStructure.getNumberFields()) {
+                    channelPutRequester.putDone(putMismatchStatus, this);
+                    return;
+                }
+
+                Map<String, String> parameters = new HashMap<String, String>();
+                if (!getParameters(pvPutStructure, putBitSet, parameters)) {
+                    channelPutRequester.putDone(readOnlyConfigStatus, this);
+                    return;
+                }
+                if (parameters.isEmpty()) {
+                    channelPutRequester.putDone(okStatus, this);
+                    return;
+                }
+
+                // retune between two ticks
+                scopePvStructure.execute(() -> {
+                    Status status = okStatus;
+                    try {
+                        scopePvStructure.reconfigure(parameters);
+                    } catch (IllegalArgumentException e) {
+                        status = statusCreate.createStatus(StatusType.ERROR, e.getMessage(), null);
+                    }
+                    channelPutRequester.putDone(status, this);
+
+                    if (lastRequest)
+                        destroy();
+                });
+            }
+
+            /**
+             * Collects the config fields set in the put.
+             *
+             * @return false if the put sets fields out of the config
+             */
+            private boolean getParameters(PVStructure pvPutStructure, BitSet putBitSet,
+                    Map<String, String> parameters) {
+                int configStart = pvConfig.getFieldOffset();
+                int configEnd = pvConfig.getNextFieldOffset();
+                for (int i = putBitSet.nextSetBit(0); i >= 0; i = putBitSet.nextSetBit(i + 1)) {
+                    PVField pvField = (i == 0) ? pvPutStructure : pvPutStructure.getSubField(i);
+                    if (pvField == null)
+                        return false;
+                    // the scalar fields of a set structure are all set
+                    for (int j = Math.max(i, 1); j < pvField.getNextFieldOffset(); j++) {
+                        PVField pvSubField = pvPutStructure.getSubField(j);
+                        if (pvSubField instanceof PVStructure)
+                            continue;
+                        int originIndex = mapper.getOriginStructureIndex(j);
+                        if (originIndex < configStart || originIndex >= configEnd || !(pvSubField instanceof PVScalar))
+                            return false;
+                        parameters.put(pvSubField.getFieldName(), convert.toString((PVScalar) pvSubField));
+                    }
+                    i = pvField.getNextFieldOffset() - 1;
+                }
+                return true;
+            }
+
+            @Override
+            public void get() {
+                if (destroyed.get()) {
+                    channelPutRequester.getDone(destroyedStatus, this, null, null);
+                    return;
+                }
+
+                lock();
+                try {
+                    scopePvStructure.lock();
+                    try {
+                        mapper.updateCopyStructure(null);
+                    } finally {
+                        scopePvStructure.unlock();
+                    }
+                    bitSet.clear();
+                    bitSet.set(0);
+                } finally {
+                    unlock();
+                }
+                channelPutRequester.getDone(okStatus, this, pvCopyStructure, bitSet);
+
+                if (lastRequest)
+                    destroy();
+            }
+        }
+
+        /**
+         * Returns past frames of the history in one response. The arguments,
+         * directly in the request or in its <code>query</code> (NTURI), are all
+         * optional: <code>last</code> the maximum number of frames, the newest
+         * ones, <code>start</code> and <code>end</code> the time range in
+         * seconds past epoch.
+         */
+        class ScopeChannelRPCImpl extends ScopeBasicChannelRequest implements ChannelRPC {
+            private final ChannelRPCRequester channelRPCRequester;
+
+            public ScopeChannelRPCImpl(ScopePvStructure scopePvStructure, ChannelRPCRequester channelRPCRequester) {
+                super(ScopeChannelImpl.this, scopePvStructure, null);
+
+                this.channelRPCRequester = channelRPCRequester;
+
+                channelRPCRequester.channelRPCConnect(okStatus, this);
+            }
+
+            @Override
+            public void request(PVStructure pvArgument) {
+                if (destroyed.get()) {
+                    channelRPCRequester.requestDone(destroyedStatus, this, null);
+                    return;
+                }
+
+                PVStructure arguments = pvArgument;
+                if (arguments != null && arguments.getStructureField("query") != null)
+                    arguments = arguments.getStructureField("query");
+
+                PVStructure result;
+                try {
+                    int last = (int) getArgument(arguments, "last", 0);
+                    double start = getArgument(arguments, "start", Double.NEGATIVE_INFINITY);
+                    double end = getArgument(arguments, "end", Double.POSITIVE_INFINITY);
+                    result = scopePvStructure.getHistory().query(last, start, end);
+                } catch (IllegalArgumentException e) {
+                    channelRPCRequester.requestDone(statusCreate.createStatus(StatusType.ERROR, e.getMessage(), null),
+                            this, null);
+                    return;
+                }
+                channelRPCRequester.requestDone(okStatus, this, result);
+
+                if (lastRequest)
+                    destroy();
+            }
+
+            private double getArgument(PVStructure arguments, String name, double defaultValue) {
+                PVField pvField = (arguments == null) ? null : arguments.getSubField(name);
+                if (pvField == null)
+                    return defaultValue;
+                if (!(pvField instanceof PVScalar))
+                    throw new IllegalArgumentException(name + " must be a number");
+                try {
+                    return Double.parseDouble(convert.toString((PVScalar) pvField).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(name + " must be a number");
+                }
+            }
+        }
+
+        /**
+         * Reads slices of the signal value array from the last published frame,
+         * so only the requested elements are copied and serialized.
+         */
+        class ScopeChannelArrayImpl extends ScopeBasicChannelRequest implements ChannelArray {
+            private final ChannelArrayRequester channelArrayRequester;
+            private final DoubleArrayData arrayData = new DoubleArrayData();
+
+            // guarded by lock
+            private final PVDoubleArray pvArray;
+
+            public ScopeChannelArrayImpl(ScopePvStructure scopePvStructure,
+                                         ChannelArrayRequester channelArrayRequester) {
+                super(ScopeChannelImpl.this, scopePvStructure, null);
+
+                this.channelArrayRequester = channelArrayRequester;
+
+                pvArray = (PVDoubleArray) PVFactory.getPVDataCreate().createPVScalarArray(ScalarType.pvDouble);
+
+                channelArrayRequester.channelArrayConnect(okStatus, this, pvArray.getArray());
+            }
+
+            /**
+             * Gets the elements <code>offset</code>,
+             * <code>offset + stride</code>, ... of the signal, at most
+             * <code>count</code> of them, all the remaining ones if
+             * <code>count</code> is not positive.
+             */
+            @Override
+            public void getArray(int offset, int count, int stride) {
+                if (destroyed.get()) {
+                    channelArrayRequester.getArrayDone(destroyedStatus, this, null);
+                    return;
+                }
+                if (offset < 0 || stride <= 0) {
+                    channelArrayRequester.getArrayDone(invalidSliceStatus, this, null);
+                    return;
+                }
+
+                ScopePvStructure.Frame frame = scopePvStructure.acquireFrame();
+                lock();
+                try {
+                    double[] values = (frame != null) ? frame.getValues() : new double[0];
+                    int available = (offset < values.length) ? (values.length - offset + stride - 1) / stride : 0;
+                    int length = (count <= 0) ? available : Math.min(count, available);
+
+                    pvArray.setLength(length);
+                    pvArray.get(0, length, arrayData);
+                    double[] data = arrayData.data;
+                    if (stride == 1) {
+                        if (length > 0)
+                            System.arraycopy(values, offset, data, 0, length);
+                    } else {
+                        for (int i = 0, j = offset; i < length; i++, j += stride)
+                            data[i] = values[j];
+                    }
+                } finally {
+                    unlock();
+                    if (frame != null)
+                        frame.release();
+                }
+
+                channelArrayRequester.getArrayDone(okStatus, this, pvArray);
 
                 if (lastRequest)
                     destroy();
             }
+
+            @Override
+            public void getLength() {
+                if (destroyed.get()) {
+                    channelArrayRequester.getLengthDone(destroyedStatus, this, 0);
+                    return;
+                }
+
+                ScopePvStructure.Frame frame = scopePvStructure.acquireFrame();
+                int length = 0;
+                if (frame != null) {
+                    length = frame.getValues().length;
+                    frame.release();
+                }
+                channelArrayRequester.getLengthDone(okStatus, this, length);
+
+                if (lastRequest)
+                    destroy();
+            }
+
+            @Override
+            public void putArray(PVArray putArray, int offset, int count, int stride) {
+                channelArrayRequester.putArrayDone(destroyed.get() ? destroyedStatus : readOnlyStatus, this);
+            }
+
+            @Override
+            public void setLength(int length) {
+                channelArrayRequester.setLengthDone(destroyed.get() ? destroyedStatus : readOnlyStatus, this);
+            }
         }
 
         class ScopeChannelMonitorImpl extends ScopeBasicChannelRequest
-                implements Monitor, ScopePvStructureListener, MonitorElement {
+                implements Monitor, ScopePvStructureListener {
             private final MonitorRequester monitorRequester;
-            private final PVStructure pvGetStructure;
-            private final BitSet bitSet; // for user
-            private final BitSet activeBitSet; // changed monitoring
+            private final ScopeSnapshotPool snapshots;
+            private final BitSet activeBitSet; // changes not yet delivered to an element
             private final AtomicBoolean started = new AtomicBoolean(false);
-
-            // TODO tmp
+            private final ScopeDispatcher.Delivery delivery;
+
+            // guarded by lock
+            private final ArrayDeque<ScopeMonitorElement> freeElements;
+            private final ArrayDeque<ScopeMonitorElement> usedElements;
+            private final BitSet changedBitSet;
+            private long deliveredVersion = -1;
+            private long deliveredConfigVersion = -1;
             private final BitSet allChanged;
-            private final BitSet noOverrun;
+            private final BitSet frameBitSet; // the fields written by every frame
+            private final int configOffset;
+            private final long minUpdatePeriodNanos; // 0 if the rate is not capped
+            private long nextDeliveryNanos;
+            private boolean deferred = false;
 
             public ScopeChannelMonitorImpl(ScopePvStructure scopePvStructure,
                                            MonitorRequester monitorRequester,
-                                           PVStructure pvRequest) {
-                super(ScopeChannelImpl.this, scopePvStructure, pvRequest);
+                                           PVStructure pvRequest,
+                                           ScopeDecimator decimator,
+                                           long minUpdatePeriodNanos) {
+                // the copies are shared with the other monitors, no own mapper
+                super(ScopeChannelImpl.this, scopePvStructure, null);
 
                 this.monitorRequester = monitorRequester;
+                acquireTopStructure(scopePvStructure.getName());
 
-                pvGetStructure = mapper.getCopyStructure();
-                activeBitSet = new BitSet(pvGetStructure.getNumberFields());
+                snapshots = scopePvStructure.getMapperCache().getSnapshotPool(pvRequest, decimator);
+                Structure structure = snapshots.getMapper().getCopyStructure().getStructure();
+                int numberFields = snapshots.getMapper().getCopyStructure().getNumberFields();
+                PVStructure origin = scopePvStructure.getPVStructure();
+                activeBitSet = new BitSet(origin.getNumberFields());
                 activeBitSet.set(0); // initial get gets all
+                frameBitSet = new BitSet(origin.getNumberFields());
+                frameBitSet.set(origin.getSubField("signal").getFieldOffset());
+                frameBitSet.set(origin.getSubField("timeStamp").getFieldOffset());
+                configOffset = origin.getSubField("config").getFieldOffset();
 
-                bitSet = new BitSet(pvGetStructure.getNumberFields());
-
-                allChanged = new BitSet(pvGetStructure.getNumberFields());
+                allChanged = new BitSet(numberFields);
                 allChanged.set(0);
-                noOverrun = new BitSet(pvGetStructure.getNumberFields());
+                changedBitSet = new BitSet(numberFields);
+
+                int queueSize = ScopeRequestOptions.getRecordOption(pvRequest, "queueSize", DEFAULT_QUEUE_SIZE);
+                queueSize = Math.max(1, Math.min(queueSize, MAX_QUEUE_SIZE));
+                freeElements = new ArrayDeque<ScopeMonitorElement>(queueSize);
+                usedElements = new ArrayDeque<ScopeMonitorElement>(queueSize);
+                for (int i = 0; i < queueSize; i++)
+                    freeElements.add(new ScopeMonitorElement(numberFields));
+                delivery = ScopeDispatcher.getInstance().createDelivery(this::deliver);
+
+                this.minUpdatePeriodNanos = minUpdatePeriodNanos;
+                nextDeliveryNanos = System.nanoTime();
 
-                monitorRequester.monitorConnect(okStatus, this, pvGetStructure.getStructure());
+                monitorRequester.monitorConnect(okStatus, this, structure);
             }
 
             @Override
             public void internalDestroy() {
                 scopePvStructure.unregisterListener(this);
+                lock();
+                try {
+                    releaseUsedElements();
+                } finally {
+                    unlock();
+                }
+                releaseTopStructure(scopePvStructure);
             }
 
             @Override
             public void scopeStructureChanged(BitSet changedBitSet) {
                 lock();
-                activeBitSet.or(changedBitSet);
+                try {
+                    activeBitSet.or(changedBitSet);
+                } finally {
+                    unlock();
+                }
+                // copy and notify off the producer thread
+                delivery.trigger();
+            }
 
-                // add to queue, trigger
-                scopePvStructure.lock();
+            private void deliver() {
+                boolean queued = false;
+                lock();
                 try {
-                    mapper.updateCopyStructureOriginBitSet(activeBitSet, bitSet);
-                    activeBitSet.clear();
+                    if (started.get() && !deferDelivery()) {
+                        queued = updateQueue();
+                        if (queued)
+                            nextDeliveryNanos = System.nanoTime() + minUpdatePeriodNanos;
+                    }
                 } finally {
-                    scopePvStructure.unlock();
                     unlock();
                 }
-                // TODO not a safe copy...
-                monitorRequester.monitorEvent(this);
+                if (queued)
+                    monitorRequester.monitorEvent(this);
+            }
+
+            /**
+             * With a capped rate, postpones the delivery until the update period
+             * of the subscriber has elapsed. The frames received meanwhile are
+             * collapsed: their changes accumulate and only the newest is
+             * delivered. Must be called holding the lock.
+             *
+             * @return true if the delivery is postponed
+             */
+            private boolean deferDelivery() {
+                if (minUpdatePeriodNanos == 0)
+                    return false;
+                long delay = nextDeliveryNanos - System.nanoTime();
+                if (delay <= 0)
+                    return false;
+                if (!deferred) {
+                    deferred = true;
+                    ScopeScheduler.getInstance().schedule(scopePvStructure.getName(), () -> {
+                        lock();
+                        try {
+                            deferred = false;
+                        } finally {
+                            unlock();
+                        }
+                        delivery.trigger();
+                    }, delay, TimeUnit.NANOSECONDS);
+                }
+                return true;
+            }
+
+            /**
+             * Hands the snapshot of the last published frame to a free element,
+             * or when the queue is full folds it into the newest element not
+             * yet polled and marks the overrun. If the client holds every
+             * element the changes stay pending until one is released. Never
+             * takes the lock of the structure, see {@link ScopeSnapshotPool}.
+             * Must be called holding the lock.
+             *
+             * @return true if a new element was queued
+             */
+            private boolean updateQueue() {
+                ScopePvStructure.Frame frame = scopePvStructure.acquireFrame();
+                if (frame == null)
+                    return false; // the first frame notifies again
+                try {
+                    long version = frame.getVersion();
+                    if (version == deliveredVersion) {
+                        // already delivered ahead of its notification
+                        activeBitSet.clear();
+                        return false;
+                    }
+                    // the frame may be ahead of the notifications received so far
+                    activeBitSet.or(frameBitSet);
+                    if (frame.getConfigVersion() != deliveredConfigVersion)
+                        activeBitSet.set(configOffset);
+
+                    snapshots.getMapper().mapOriginBitSet(activeBitSet, changedBitSet);
+                    if (changedBitSet.isEmpty()) {
+                        // none of the requested fields changed
+                        activeBitSet.clear();
+                        deliveredVersion = version;
+                        deliveredConfigVersion = frame.getConfigVersion();
+                        return false;
+                    }
+
+                    boolean overrun = false;
+                    ScopeMonitorElement element = freeElements.pollFirst();
+                    if (element == null) {
+                        element = usedElements.peekLast();
+                        if (element == null)
+                            return false;
+                        overrun = true;
+                    }
+
+                    ScopeStats stats = scopePvStructure.getStats();
+                    long copyStart = System.nanoTime();
+                    ScopeSnapshotPool.Snapshot snapshot = snapshots.acquire(frame);
+                    stats.recordCopy(System.nanoTime() - copyStart);
+                    // the versions skipped on purpose by a capped rate are not dropped
+                    if (deliveredVersion >= 0 && minUpdatePeriodNanos == 0 && version - deliveredVersion > 1)
+                        stats.recordDropped(version - deliveredVersion - 1);
+                    deliveredVersion = version;
+                    deliveredConfigVersion = frame.getConfigVersion();
+                    activeBitSet.clear();
+
+                    if (overrun) {
+                        // the queued version is replaced before being polled
+                        stats.recordOverrun();
+                        stats.recordDropped(1);
+                        element.snapshot.release();
+                        element.snapshot = snapshot;
+                        element.overrunBitSet.or_and(element.changedBitSet, changedBitSet);
+                        element.changedBitSet.or(changedBitSet);
+                        return false;
+                    }
+
+                    element.snapshot = snapshot;
+                    element.changedBitSet.clear();
+                    element.changedBitSet.or(changedBitSet);
+                    element.overrunBitSet.clear();
+                    usedElements.addLast(element);
+                    stats.recordQueued(1);
+                    return true;
+                } finally {
+                    frame.release();
+                }
+            }
+
+            /**
+             * Returns the queued elements to the free ones. Must be called
+             * holding the lock.
+             */
+            private void releaseUsedElements() {
+                ScopeMonitorElement element;
+                while ((element = usedElements.pollFirst()) != null) {
+                    element.snapshot.release();
+                    element.snapshot = null;
+                    freeElements.addLast(element);
+                    scopePvStructure.getStats().recordQueued(-1);
+                }
             }
 
             @Override
@@ -405,6 +1073,13 @@ public class ScopeChannelProviderImpl implements ChannelProvider {
                     return okStatus;
 
                 // force monitor immediately
+                lock();
+                try {
+                    deliveredVersion = -1;
+                    deliveredConfigVersion = -1;
+                } finally {
+                    unlock();
+                }
                 scopeStructureChanged(allChanged);
 
                 scopePvStructure.registerListener(this);
@@ -417,51 +1092,91 @@ public class ScopeChannelProviderImpl implements ChannelProvider {
                 if (!started.getAndSet(false))
                     return okStatus;
 
-                // TODO clear queue
-
                 scopePvStructure.unregisterListener(this);
 
+                lock();
+                try {
+                    releaseUsedElements();
+                } finally {
+                    unlock();
+                }
+
                 return okStatus;
             }
 
-            private final AtomicBoolean pooled = new AtomicBoolean(false);
-
             @Override
             public MonitorElement poll() {
-                if (pooled.getAndSet(true))
-                    return null;
-
-                return this;
+                lock();
+                try {
+                    ScopeMonitorElement element = usedElements.pollFirst();
+                    if (element != null)
+                        scopePvStructure.getStats().recordQueued(-1);
+                    return element;
+                } finally {
+                    unlock();
+                }
             }
 
             @Override
             public void release(MonitorElement monitorElement) {
-                pooled.set(false);
+                ScopeMonitorElement element = (ScopeMonitorElement) monitorElement;
+                boolean pending;
+                lock();
+                try {
+                    if (element.snapshot != null) {
+                        element.snapshot.release();
+                        element.snapshot = null;
+                    }
+                    freeElements.addLast(element);
+                    pending = started.get() && !activeBitSet.isEmpty();
+                } finally {
+                    unlock();
+                }
+                // changes that came in while the client held every element
+                if (pending)
+                    delivery.trigger();
             }
 
-            @Override
-            public PVStructure getPVStructure() {
-                return pvGetStructure;
-            }
+            class ScopeMonitorElement implements MonitorElement {
+                private final BitSet changedBitSet;
+                private final BitSet overrunBitSet;
+                private ScopeSnapshotPool.Snapshot snapshot;
 
-            @Override
-            public BitSet getChangedBitSet() {
-                return allChanged;
-            }
+                ScopeMonitorElement(int numberFields) {
+                    this.changedBitSet = new BitSet(numberFields);
+                    this.overrunBitSet = new BitSet(numberFields);
+                }
 
-            @Override
-            public BitSet getOverrunBitSet() {
-                return noOverrun;
-            }
+                @Override
+                public PVStructure getPVStructure() {
+                    return snapshot.getPVStructure();
+                }
+
+                @Override
+                public BitSet getChangedBitSet() {
+                    return changedBitSet;
+                }
 
+                @Override
+                public BitSet getOverrunBitSet() {
+                    return overrunBitSet;
+                }
+            }
         }
 
     }
 
     @Override
     public void destroy() {
-        // TODO Auto-generated method stub
-
+        statsChannel.stop();
+        List<SharedStructure> list;
+        synchronized (this) {
+            list = new ArrayList<SharedStructure>(structures.values());
+            structures.clear();
+        }
+        // the structures still being created are stopped once created
+        for (SharedStructure sharedStructure : list)
+            sharedStructure.created.thenAccept(ScopePvStructure::stop);
     }
 
     @Override
@@ -521,18 +1236,124 @@ public class ScopeChannelProviderImpl implements ChannelProvider {
         if (priority < ChannelProvider.PRIORITY_MIN || priority > ChannelProvider.PRIORITY_MAX)
             throw new IllegalArgumentException("priority out of range");
 
-        Channel channel = isSupported(channelName)
-                ? new ScopeChannelImpl(channelName, channelRequester, getTopStructure(channelName))
-                : null;
+        if (channelName.equals(ScopeStatsChannel.CHANNEL_NAME)) {
+            Channel channel = statsChannel.createChannel(channelRequester);
+            channelRequester.channelCreated(okStatus, channel);
+            return channel;
+        }
 
-        Status status = (channel == null) ? channelNotFoundStatus : okStatus;
+        ScopeChannelConfig config = getConfig(channelName);
+        Channel channel = null;
+        Status status = channelNotFoundStatus;
+        if (config != null) {
+            try {
+                channel = new ScopeChannelImpl(channelName, channelRequester, acquireTopStructure(config));
+                status = okStatus;
+            } catch (IllegalArgumentException e) {
+                // e.g. a recording to replay that cannot be read
+                status = statusCreate.createStatus(StatusType.ERROR, e.getMessage(), null);
+            }
+        }
         channelRequester.channelCreated(status, channel);
 
         return channel;
     }
 
-    private synchronized ScopePvStructure getTopStructure(String channelName) {
-        return new ScopePvStructure(channelName);
+    /**
+     * Returns the live structure for the given parameter set, creating and
+     * starting it on first use, and adds a reference to it. The structure,
+     * which may allocate its history and tables and open its recording, is
+     * created without holding the lock of the provider.
+     */
+    private ScopePvStructure acquireTopStructure(ScopeChannelConfig config) {
+        String key = config.getKey();
+        SharedStructure sharedStructure;
+        CompletableFuture<Void> predecessor = null;
+        boolean create = false;
+        synchronized (this) {
+            sharedStructure = structures.get(key);
+            if (sharedStructure == null) {
+                sharedStructure = new SharedStructure();
+                structures.put(key, sharedStructure);
+                predecessor = stopping.get(key);
+                create = true;
+            }
+            sharedStructure.references++;
+        }
+
+        if (create) {
+            try {
+                if (predecessor != null)
+                    predecessor.join();
+                sharedStructure.created.complete(new ScopePvStructure(config));
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    structures.remove(key, sharedStructure);
+                }
+                sharedStructure.created.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        try {
+            return sharedStructure.created.join();
+        } catch (CompletionException e) {
+            // the first channel failed to create it, e.g. a recording that cannot be read
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the live structures
+     */
+    private synchronized List<ScopePvStructure> getStructures() {
+        List<ScopePvStructure> list = new ArrayList<ScopePvStructure>(structures.size());
+        for (SharedStructure sharedStructure : structures.values()) {
+            ScopePvStructure scopePvStructure = sharedStructure.created.getNow(null);
+            if (scopePvStructure != null)
+                list.add(scopePvStructure);
+        }
+        return list;
+    }
+
+    /**
+     * Adds a reference to the already live structure with the given key.
+     */
+    private synchronized void acquireTopStructure(String key) {
+        SharedStructure sharedStructure = structures.get(key);
+        if (sharedStructure != null)
+            sharedStructure.references++;
+    }
+
+    /**
+     * Drops a reference to the given structure; the last reference stops its
+     * generator and removes it from the scheduler. The structure is stopped,
+     * and its recording closed, without holding the lock of the provider.
+     */
+    private void releaseTopStructure(ScopePvStructure scopePvStructure) {
+        String key = scopePvStructure.getName();
+        CompletableFuture<Void> stopped;
+        synchronized (this) {
+            SharedStructure sharedStructure = structures.get(key);
+            if (sharedStructure == null || sharedStructure.created.getNow(null) != scopePvStructure)
+                return;
+            if (--sharedStructure.references > 0)
+                return;
+            structures.remove(key);
+            stopped = new CompletableFuture<Void>();
+            stopping.put(key, stopped);
+        }
+
+        try {
+            scopePvStructure.stop();
+        } finally {
+            synchronized (this) {
+                stopping.remove(key, stopped);
+            }
+            stopped.complete(null);
+        }
     }
 
     @Override
@@ -541,7 +1362,19 @@ public class ScopeChannelProviderImpl implements ChannelProvider {
     }
 
 
+    /**
+     * @return the generator parameters of the channel, or <code>null</code> if
+     *         the channel is not hosted by this provider
+     */
+    private ScopeChannelConfig getConfig(String channelName) {
+        try {
+            return ScopeChannelConfig.parse(channelName);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     private boolean isSupported(String channelName) {
-        return HOSTED_CHANNELS_SET.contains(channelName) || channelName.startsWith(PROVIDER_NAME);
+        return channelName.equals(ScopeStatsChannel.CHANNEL_NAME) || getConfig(channelName) != null;
     }
 }
@@ -0,0 +1,164 @@
+package org.epics.pvaccess.scope;
+
+import org.epics.pvdata.pv.PVStructure;
+
+/**
+ * Reduces a waveform to about the number of points a display can show,
+ * requested with the record options <code>decimate</code>, the target number
+ * of points, and <code>mode</code>, e.g.
+ * <code>record[decimate=2000,mode=lttb]field()</code>. The modes are
+ * <ul>
+ * <li><code>minmax</code> (the default) the min/max envelope, the smallest and
+ * largest sample of each of <code>decimate/2</code> buckets</li>
+ * <li><code>lttb</code> the Largest-Triangle-Three-Buckets downsampling, which
+ * keeps the visual shape of the waveform</li>
+ * </ul>
+ * The decimator selects the indices of the samples to keep, the same indices
+ * then apply to the values and to the x axis. Waveforms not longer than the
+ * target are not reduced.
+ */
+public class ScopeDecimator {
+
+    static final String MINMAX = "minmax";
+    static final String LTTB = "lttb";
+
+    private final int width;
+    private final String mode;
+    private int[] indices = new int[0];
+
+    ScopeDecimator(int width, String mode) {
+        if (width < 2)
+            throw new IllegalArgumentException("decimate must be at least 2");
+        if (!MINMAX.equals(mode) && !LTTB.equals(mode))
+            throw new IllegalArgumentException("unknown decimation mode: " + mode);
+        this.width = width;
+        this.mode = mode;
+    }
+
+    /**
+     * @param pvRequest
+     *            the pvRequest
+     * @return the decimator requested, or <code>null</code> if the request does
+     *         not ask for decimation
+     * @throws IllegalArgumentException
+     *             if the decimation options are invalid
+     */
+    static ScopeDecimator fromRequest(PVStructure pvRequest) {
+        String decimate = ScopeRequestOptions.getRecordOption(pvRequest, "decimate");
+        if (decimate == null)
+            return null;
+        String mode = ScopeRequestOptions.getRecordOption(pvRequest, "mode");
+        try {
+            return new ScopeDecimator(Integer.parseInt(decimate.trim()), (mode == null) ? MINMAX : mode.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("decimate must be an integer: " + decimate);
+        }
+    }
+
+    /**
+     * @return the key of this reduction, requests with the same key share one
+     *         reduction pass
+     */
+    public String getKey() {
+        return "decimate=" + width + ":mode=" + mode;
+    }
+
+    /**
+     * @return the indices selected by the last call to {@link #select}
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * Selects the samples to keep.
+     *
+     * @param values
+     *            the waveform
+     * @param length
+     *            the number of samples of the waveform
+     * @return the number of indices selected, in increasing order, in
+     *         {@link #getIndices()}
+     */
+    public int select(double[] values, int length) {
+        if (indices.length < Math.min(length, width))
+            indices = new int[Math.min(length, width)];
+
+        if (length <= width) {
+            for (int i = 0; i < length; i++)
+                indices[i] = i;
+            return length;
+        }
+        return MINMAX.equals(mode) ? selectMinMax(values, length) : selectLttb(values, length);
+    }
+
+    private int selectMinMax(double[] values, int length) {
+        int buckets = width / 2;
+        int count = 0;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int start = (int) ((long) bucket * length / buckets);
+            int end = (int) ((long) (bucket + 1) * length / buckets);
+            int min = start;
+            int max = start;
+            for (int i = start + 1; i < end; i++) {
+                if (values[i] < values[min])
+                    min = i;
+                else if (values[i] > values[max])
+                    max = i;
+            }
+            if (min == max) {
+                indices[count++] = min;
+            } else {
+                indices[count++] = Math.min(min, max);
+                indices[count++] = Math.max(min, max);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets, using the sample index as x.
+     */
+    private int selectLttb(double[] values, int length) {
+        int count = 0;
+        int selected = 0;
+        indices[count++] = selected;
+
+        // the first and last samples are always kept
+        double bucketSize = (double) (length - 2) / (width - 2);
+        for (int bucket = 0; bucket < width - 2; bucket++) {
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = Math.min((int) ((bucket + 1) * bucketSize) + 1, length - 1);
+
+            // the average of the next bucket
+            int nextStart = end;
+            int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, length);
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageX += i;
+                averageY += values[i];
+            }
+            int nextCount = Math.max(1, nextEnd - nextStart);
+            averageX /= nextCount;
+            averageY /= nextCount;
+
+            double selectedY = values[selected];
+            double maxArea = -1;
+            int next = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((selected - averageX) * (values[i] - selectedY)
+                        - (selected - i) * (averageY - selectedY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+            selected = next;
+            indices[count++] = selected;
+        }
+
+        indices[count++] = length - 1;
+        return count;
+    }
+}
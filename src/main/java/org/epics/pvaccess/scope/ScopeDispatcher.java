@@ -0,0 +1,126 @@
+package org.epics.pvaccess.scope;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the delivery of updates to the subscribers off the event loops, so that
+ * a slow or blocked subscriber never delays the tick of a channel.
+ * <p>
+ * Each subscriber gets its own {@link Delivery}, a serial and conflating
+ * executor: at most one run of the delivery task is in flight and at most one
+ * more is pending, any further trigger collapses into the pending run which
+ * then delivers the latest value. The deliveries run on virtual threads when
+ * the JVM has them, otherwise on a shared pool of
+ * <code>scope.dispatchThreads</code> threads (one per core by default).
+ */
+public class ScopeDispatcher {
+
+    private static final ScopeDispatcher instance = new ScopeDispatcher(createExecutor());
+
+    /**
+     * @return the dispatcher shared by all the channels of this process
+     */
+    public static ScopeDispatcher getInstance() {
+        return instance;
+    }
+
+    private final Executor executor;
+
+    ScopeDispatcher(Executor executor) {
+        this.executor = executor;
+    }
+
+    private static Executor createExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // no virtual threads on this JVM
+        }
+
+        int threads = Integer.getInteger("scope.dispatchThreads", Runtime.getRuntime().availableProcessors());
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "scope dispatcher " + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param task
+     *            the task delivering the latest value to one subscriber
+     * @return a new serial, conflating delivery of the task
+     */
+    public Delivery createDelivery(Runnable task) {
+        return new Delivery(task);
+    }
+
+    public class Delivery implements Runnable {
+        private static final int IDLE = 0;
+        private static final int SCHEDULED = 1;
+        private static final int RUNNING = 2;
+        private static final int RUNNING_PENDING = 3;
+
+        private final Runnable task;
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+
+        private Delivery(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Requests a run of the delivery task; never blocks.
+         */
+        public void trigger() {
+            while (true) {
+                int current = state.get();
+                switch (current) {
+                case IDLE:
+                    if (state.compareAndSet(IDLE, SCHEDULED)) {
+                        executor.execute(this);
+                        return;
+                    }
+                    break;
+                case RUNNING:
+                    if (state.compareAndSet(RUNNING, RUNNING_PENDING))
+                        return;
+                    break;
+                default:
+                    // a run is already pending, it will see the latest value
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            state.set(RUNNING);
+            try {
+                task.run();
+            } catch (Throwable th) {
+                Writer writer = new StringWriter();
+                PrintWriter printWriter = new PrintWriter(writer);
+                th.printStackTrace(printWriter);
+                System.err.println("Unexpected exception caught: " + writer);
+            }
+
+            if (!state.compareAndSet(RUNNING, IDLE)) {
+                // triggered while running, go to the back of the line
+                state.set(SCHEDULED);
+                executor.execute(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.epics.pvaccess.scope;
+
+import java.util.Arrays;
+
+import org.epics.pvdata.factory.FieldFactory;
+import org.epics.pvdata.factory.PVDataFactory;
+import org.epics.pvdata.pv.Field;
+import org.epics.pvdata.pv.PVDoubleArray;
+import org.epics.pvdata.pv.PVIntArray;
+import org.epics.pvdata.pv.PVLongArray;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.Structure;
+
+/**
+ * The last frames of a structure, kept in a ring preallocated as one
+ * contiguous block of samples so that recording a frame never allocates.
+ * <p>
+ * The ring only holds frames of one number of samples; when it changes the
+ * history starts over, reusing the block if it is large enough. A history
+ * larger than the <code>scope.maxHistoryMB</code> budget keeps no frame until
+ * the number of samples fits again. Queries copy the samples outside of the
+ * monitor taken by {@link #record(double[], long, int)}, and drop the frames
+ * overwritten during the copy.
+ * <p>
+ * A query returns the selected frames in one structure:
+ * <ul>
+ * <li><code>int sampleCount</code> the number of samples of each frame</li>
+ * <li><code>long[] secondsPastEpoch</code> and <code>int[] nanoseconds</code>
+ * the time stamps of the frames, oldest first</li>
+ * <li><code>double[] value</code> the samples of the frames, one frame after
+ * the other</li>
+ * </ul>
+ */
+public class ScopeFrameHistory {
+
+    static final String HISTORY_SAMPLE_COUNT = "sampleCount";
+    static final String HISTORY_SECONDS = "secondsPastEpoch";
+    static final String HISTORY_NANOSECONDS = "nanoseconds";
+    static final String HISTORY_VALUE = "value";
+
+    static final Structure HISTORY = FieldFactory.getFieldCreate().createStructure(
+            new String[] { HISTORY_SAMPLE_COUNT, HISTORY_SECONDS, HISTORY_NANOSECONDS, HISTORY_VALUE },
+            new Field[] {
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvInt),
+                    FieldFactory.getFieldCreate().createScalarArray(ScalarType.pvLong),
+                    FieldFactory.getFieldCreate().createScalarArray(ScalarType.pvInt),
+                    FieldFactory.getFieldCreate().createScalarArray(ScalarType.pvDouble) });
+
+    private static final double[] EMPTY = new double[0];
+
+    private final int capacity;
+    private final long[] secondsPastEpoch;
+    private final int[] nanoseconds;
+
+    // guarded by this
+    private int sampleCount;
+    private double[] values = EMPTY;
+    private long count = 0; // frames recorded since the last reset
+    private long resets = 0;
+
+    /**
+     * @param capacity
+     *            the number of frames kept
+     * @param sampleCount
+     *            the number of samples of each frame
+     * @throws IllegalArgumentException
+     *             if the history exceeds the <code>scope.maxHistoryMB</code>
+     *             budget
+     */
+    public ScopeFrameHistory(int capacity, int sampleCount) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("history size must be a positive integer");
+        ScopeChannelConfig.checkHistory(capacity, sampleCount);
+        this.capacity = capacity;
+        this.secondsPastEpoch = new long[capacity];
+        this.nanoseconds = new int[capacity];
+        reset(sampleCount);
+    }
+
+    /**
+     * Drops all the frames, the frames recorded from now on have the given
+     * number of samples. The block of samples is only reallocated, outside of
+     * the monitor, when it is too small; the frames are not kept at all if
+     * they do not fit in the <code>scope.maxHistoryMB</code> budget.
+     *
+     * @param sampleCount
+     *            the number of samples of each frame
+     */
+    public void reset(int sampleCount) {
+        double[] block;
+        synchronized (this) {
+            block = values;
+        }
+        if ((long) capacity * sampleCount > block.length) {
+            try {
+                ScopeChannelConfig.checkHistory(capacity, sampleCount);
+                block = new double[capacity * sampleCount];
+            } catch (IllegalArgumentException e) {
+                System.err.println("History disabled until the frames are smaller: " + e.getMessage());
+            }
+        }
+        synchronized (this) {
+            this.values = block;
+            this.sampleCount = sampleCount;
+            this.count = 0;
+            this.resets++;
+        }
+    }
+
+    /**
+     * @return the number of samples of the frames kept
+     */
+    public synchronized int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Records a frame, overwriting the oldest one once the ring is full.
+     *
+     * @param frame
+     *            the samples of the frame
+     * @param seconds
+     *            the seconds past epoch of the frame
+     * @param nanos
+     *            the nanoseconds of the frame
+     */
+    public synchronized void record(double[] frame, long seconds, int nanos) {
+        if (frame.length != sampleCount || (long) capacity * sampleCount > values.length)
+            return;
+        int slot = (int) (count % capacity);
+        System.arraycopy(frame, 0, values, slot * sampleCount, sampleCount);
+        secondsPastEpoch[slot] = seconds;
+        nanoseconds[slot] = nanos;
+        count++;
+    }
+
+    /**
+     * @return the number of frames kept
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Selects the frames with a time stamp within the given range, then the
+     * last ones of them.
+     *
+     * @param last
+     *            the maximum number of frames returned, the newest ones, all of
+     *            them if not positive
+     * @param start
+     *            the earliest time stamp in seconds past epoch
+     * @param end
+     *            the latest time stamp in seconds past epoch
+     * @return the selected frames, see {@link ScopeFrameHistory}
+     */
+    public PVStructure query(int last, double start, double end) {
+        long[] selected;
+        long[] seconds;
+        int[] nanos;
+        int frames;
+        int samplesPerFrame;
+        double[] block;
+        long resetsBefore;
+
+        // select the frames, only the time stamps are copied under the monitor
+        synchronized (this) {
+            long oldest = Math.max(0, count - capacity);
+            long[] candidates = new long[(int) (count - oldest)];
+            int selectedCount = 0;
+            for (long i = oldest; i < count; i++) {
+                int slot = (int) (i % capacity);
+                double time = secondsPastEpoch[slot] + nanoseconds[slot] * 1e-9;
+                if (time >= start && time <= end)
+                    candidates[selectedCount++] = i;
+            }
+            int first = (last > 0) ? Math.max(0, selectedCount - last) : 0;
+            frames = selectedCount - first;
+
+            selected = new long[frames];
+            seconds = new long[frames];
+            nanos = new int[frames];
+            for (int j = 0; j < frames; j++) {
+                selected[j] = candidates[first + j];
+                int slot = (int) (selected[j] % capacity);
+                seconds[j] = secondsPastEpoch[slot];
+                nanos[j] = nanoseconds[slot];
+            }
+            samplesPerFrame = sampleCount;
+            block = values;
+            resetsBefore = resets;
+        }
+
+        double[] samples = new double[Math.multiplyExact(frames, samplesPerFrame)];
+        for (int j = 0; j < frames; j++) {
+            int slot = (int) (selected[j] % capacity);
+            System.arraycopy(block, slot * samplesPerFrame, samples, j * samplesPerFrame, samplesPerFrame);
+        }
+
+        // drop the oldest frames, overwritten by the frames recorded meanwhile
+        int overwritten;
+        synchronized (this) {
+            if (resets != resetsBefore) {
+                overwritten = frames;
+            } else {
+                overwritten = 0;
+                while (overwritten < frames && selected[overwritten] < count - capacity)
+                    overwritten++;
+            }
+        }
+        if (overwritten > 0) {
+            seconds = Arrays.copyOfRange(seconds, overwritten, seconds.length);
+            nanos = Arrays.copyOfRange(nanos, overwritten, nanos.length);
+            samples = Arrays.copyOfRange(samples, overwritten * samplesPerFrame, samples.length);
+        }
+
+        PVStructure result = PVDataFactory.getPVDataCreate().createPVStructure(HISTORY);
+        result.getIntField(HISTORY_SAMPLE_COUNT).put(samplesPerFrame);
+        result.getSubField(PVLongArray.class, HISTORY_SECONDS).shareData(seconds);
+        result.getSubField(PVIntArray.class, HISTORY_NANOSECONDS).shareData(nanos);
+        result.getSubField(PVDoubleArray.class, HISTORY_VALUE).shareData(samples);
+        return result;
+    }
+}
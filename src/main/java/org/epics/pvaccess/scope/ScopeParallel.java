@@ -0,0 +1,121 @@
+package org.epics.pvaccess.scope;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the generation of very large frames in chunks filled in parallel.
+ * <p>
+ * Frames of at least <code>scope.parallelThreshold</code> samples (1048576 by
+ * default) are split in chunks of at least <code>scope.parallelChunk</code>
+ * samples (65536 by default) run on a fork-join pool of
+ * <code>scope.parallelThreads</code> threads (one per core by default) shared
+ * by all the channels. Smaller frames are filled by the calling event loop
+ * alone, without allocating.
+ */
+public final class ScopeParallel {
+
+    /**
+     * Fills the samples <code>from</code> (inclusive) to <code>to</code>
+     * (exclusive) of a frame.
+     */
+    public interface RangeTask {
+        void run(int from, int to);
+    }
+
+    // the chunks start on a multiple of a cache line of doubles
+    private static final int ALIGNMENT = 8;
+
+    private static final int threshold = Integer.getInteger("scope.parallelThreshold", 1 << 20);
+    private static final int minChunk = Math.max(2 * ALIGNMENT, Integer.getInteger("scope.parallelChunk", 1 << 16));
+    private static final ForkJoinPool pool = new ForkJoinPool(
+            Integer.getInteger("scope.parallelThreads", Runtime.getRuntime().availableProcessors()),
+            new ForkJoinWorkerThreadFactory() {
+
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("scope generator " + thread.getPoolIndex());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, null, false);
+
+    private ScopeParallel() {
+    }
+
+    /**
+     * @param length
+     *            the number of samples of a frame
+     * @return true if frames of this size are filled in parallel
+     */
+    public static boolean isParallel(int length) {
+        return length >= threshold && pool.getParallelism() > 1;
+    }
+
+    /**
+     * Runs the task on the whole frame, in parallel chunks if the frame is
+     * large enough, and returns once all the chunks are filled.
+     *
+     * @param length
+     *            the number of samples of the frame
+     * @param task
+     *            the task filling a range of samples
+     */
+    public static void forRange(int length, RangeTask task) {
+        forRange(length, ALIGNMENT, task);
+    }
+
+    /**
+     * Runs the task on the whole frame, in parallel chunks if the frame is
+     * large enough, and returns once all the chunks are filled. The chunks
+     * start on a multiple of the given alignment, e.g. the blocks of a
+     * generator that must not depend on the number of threads.
+     *
+     * @param length
+     *            the number of samples of the frame
+     * @param alignment
+     *            the alignment of the chunks
+     * @param task
+     *            the task filling a range of samples
+     */
+    public static void forRange(int length, int alignment, RangeTask task) {
+        if (!isParallel(length)) {
+            task.run(0, length);
+            return;
+        }
+        // a few chunks per thread to balance the load
+        int chunk = Math.max(minChunk, length / (4 * pool.getParallelism()));
+        pool.invoke(new Chunk(task, 0, length, Math.max(chunk, 2 * alignment), alignment));
+    }
+
+    private static class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeTask task;
+        private final int from;
+        private final int to;
+        private final int chunk;
+        private final int alignment;
+
+        Chunk(RangeTask task, int from, int to, int chunk, int alignment) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.alignment = alignment;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                task.run(from, to);
+                return;
+            }
+            int middle = from + (to - from) / 2 / alignment * alignment;
+            invokeAll(new Chunk(task, from, middle, chunk, alignment), new Chunk(task, middle, to, chunk, alignment));
+        }
+    }
+}
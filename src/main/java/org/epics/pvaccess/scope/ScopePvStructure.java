@@ -1,13 +1,17 @@
 package org.epics.pvaccess.scope;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.file.Paths;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.DoubleStream;
@@ -34,14 +38,84 @@ import org.epics.pvdata.pv.Structure;
 import org.epics.pvdata.pv.StructureArrayData;
 
 public class ScopePvStructure implements Lockable {
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(10);
+    private final ScopeScheduler scheduler = ScopeScheduler.getInstance();
 
     public interface ScopePvStructureListener {
         public void scopeStructureChanged(BitSet changedBitSet);
     }
 
+    /**
+     * The samples and time stamp of one update, published atomically by the
+     * tick so that they can be read without taking the lock. A frame is never
+     * written while referenced; the structure holds a reference on the current
+     * frame, readers take their own with {@link ScopePvStructure#acquireFrame()}.
+     */
+    public class Frame {
+        private final double[] values;
+        private final AtomicInteger references = new AtomicInteger();
+        private long version;
+        private long configVersion;
+        private long secondsPastEpoch;
+        private int nanoseconds;
+
+        private Frame(int length) {
+            this.values = new double[length];
+        }
+
+        /**
+         * @return the samples, must not be modified
+         */
+        public double[] getValues() {
+            return values;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return the number of reconfigurations of the structure when this
+         *         frame was published
+         */
+        public long getConfigVersion() {
+            return configVersion;
+        }
+
+        public long getSecondsPastEpoch() {
+            return secondsPastEpoch;
+        }
+
+        public int getNanoseconds() {
+            return nanoseconds;
+        }
+
+        private boolean retain() {
+            while (true) {
+                int count = references.get();
+                if (count == 0)
+                    return false;
+                if (references.compareAndSet(count, count + 1))
+                    return true;
+            }
+        }
+
+        /**
+         * Drops a reference, the last one recycles the frame.
+         */
+        public void release() {
+            if (references.decrementAndGet() == 0)
+                freeFrames.add(this);
+        }
+    }
+
     private final Lock lock = new ReentrantLock();
-    private final ArrayList<ScopePvStructureListener> listeners = new ArrayList<ScopePvStructureListener>();
+
+    // O(1) registration that never blocks the tick, which iterates a snapshot
+    // rebuilt at most once per tick after the registrations changed
+    private static final ScopePvStructureListener[] NO_LISTENERS = new ScopePvStructureListener[0];
+    private final ConcurrentHashMap<ScopePvStructureListener, Boolean> listeners = new ConcurrentHashMap<ScopePvStructureListener, Boolean>();
+    private final AtomicBoolean listenersChanged = new AtomicBoolean(false);
+    private volatile ScopePvStructureListener[] listenerSnapshot = NO_LISTENERS;
 
 
     // Structure describing a axis
@@ -88,35 +162,87 @@ public class ScopePvStructure implements Lockable {
                     FieldFactory.getFieldCreate().createScalar(ScalarType.pvString),
                     FieldFactory.getFieldCreate().createScalar(ScalarType.pvString), });
 
+    // Structure holding the writable generator parameters, named as in the channel names
+    static final String SCOPE_CONFIG_N = "n";
+    static final String SCOPE_CONFIG_RATE = "rate";
+    static final String SCOPE_CONFIG_PERIOD = "period";
+    static final String SCOPE_CONFIG_WAVELENGTH = "wavelength";
+    static final String SCOPE_CONFIG_STDDEV = "stdDev";
+    static final String SCOPE_CONFIG_MIN = "min";
+    static final String SCOPE_CONFIG_MAX = "max";
+
+    static final Structure SCOPE_CONFIG = FieldFactory.getFieldCreate().createStructure(
+            new String[] { SCOPE_CONFIG_N,
+                           SCOPE_CONFIG_RATE,
+                           SCOPE_CONFIG_PERIOD,
+                           SCOPE_CONFIG_WAVELENGTH,
+                           SCOPE_CONFIG_STDDEV,
+                           SCOPE_CONFIG_MIN,
+                           SCOPE_CONFIG_MAX },
+            new Field[] {
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvInt),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvDouble),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvDouble),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvDouble),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvDouble),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvDouble),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvDouble) });
+
     // Complete Scope data structure
     static final Structure SCOPE = FieldFactory.getFieldCreate().createStructure(
-            new String[] { "signal", "axis", "trace", "timeStamp"},
+            new String[] { "signal", "axis", "trace", "timeStamp", "config"},
             new Field[] {
                     FieldFactory.getFieldCreate().createStructureArray(NTScalarArray.createBuilder().value(ScalarType.pvDouble).addDescriptor().createStructure()),
                     FieldFactory.getFieldCreate().createStructureArray(SCOPE_AXIS),
                     FieldFactory.getFieldCreate().createStructureArray(SCOPE_TRACE),
-                    FieldFactory.getFieldCreate().createStructure(StandardFieldFactory.getStandardField().timeStamp())
+                    FieldFactory.getFieldCreate().createStructure(StandardFieldFactory.getStandardField().timeStamp()),
+                    SCOPE_CONFIG
             });
 
     private final TimeStamp timeStamp = TimeStampFactory.create();
     
-    private final Signal signal;
+    // only changed on the event loop of the structure, under the lock
+    private ScopeChannelConfig config;
+    private Signal signal;
+    private long configVersion = 0;
 
     private final PVStructure pvStructure;
+    private final MapperCache mapperCache;
+    private final ScopeStats stats = new ScopeStats(ScopeStats.getGlobal());
+    private final ScopeFrameHistory history;
+    private final ScopeRecorder recorder;
     private BitSet changedBitSet;
+    private long version = 0;
+    private final String name;
+    private ScopeScheduler.Timeout processTask; // guarded by the lock
+    private boolean stopped = false;
     private NTScalarArray valueField;
+    private PVDoubleArray countField;
+    private PVStructure configField;
+    private int configFieldOffset;
+    private final ConcurrentLinkedQueue<Frame> freeFrames = new ConcurrentLinkedQueue<Frame>();
+    private volatile Frame frame;
     private PVTimeStamp timeStampField;
     private int timeStampFieldOffset;
     private int valueFieldOffset;
 
-    public ScopePvStructure(String signalType)
+    public ScopePvStructure(String channelName)
     {
+        this(ScopeChannelConfig.parse(channelName));
+    }
+
+    public ScopePvStructure(ScopeChannelConfig config)
+    {
+        this.name = config.getKey();
         this.pvStructure = PVDataFactory.getPVDataCreate().createPVStructure(SCOPE);
 
-        int elementCount = 100;
+        this.config = config;
+        signal = config.createSignal();
+        int elementCount = signal.getSampleCount();
        
         // Initialize the basic structure.
-        initialize(this.pvStructure, signalType, elementCount);
+        initialize(this.pvStructure, config.getDescriptor(), elementCount);
+        mapperCache = new MapperCache(this);
 
         changedBitSet = new BitSet(this.pvStructure.getNumberFields());
 
@@ -124,33 +250,186 @@ public class ScopePvStructure implements Lockable {
         this.pvStructure.getStructureArrayField("signal").get(0, 2, data);
         valueFieldOffset = this.pvStructure.getStructureArrayField("signal").getFieldOffset();
         valueField = NTScalarArray.wrap(data.data[1]);
+        countField = data.data[0].getSubField(PVDoubleArray.class, "value");
 
         timeStampField = PVTimeStampFactory.create();
         PVField ts = this.pvStructure.getStructureField("timeStamp");
         timeStampField.attach(ts);
         timeStampFieldOffset = ts.getFieldOffset();
 
-        switch (signalType) {
-        case "sawtooth":
-            signal = SignalGenerator.generateSawtoothWaveform(1.0, 100.0, (double) elementCount, 0.1);
-            break;
-        case "gaussian":
-            signal = SignalGenerator.generateGaussianWaveform(1.0, 100.0, (double) elementCount, 0.1);
-            break;
-        case "sine":
-            signal = SignalGenerator.generateSineWaveform(1.0, 100.0, (double) elementCount, 0.1);
-            break;
-        case "square":
-            signal = SignalGenerator.generateSquareWaveform(1.0, 100.0, (double) elementCount, 0.1);
-            break;
-        case "noise":
-            signal = SignalGenerator.generateNoiseWaveform(1.0, 100.0, (double) elementCount, 0.1);
-            break;
-        default:
-            signal = SignalGenerator.generateSawtoothWaveform(1.0, 100.0, (double) elementCount, 0.1);
-            break;
-        }
-        scheduler.scheduleAtFixedRate(this::process, 0, 100, TimeUnit.MILLISECONDS);
+        configField = this.pvStructure.getStructureField("config");
+        configFieldOffset = configField.getFieldOffset();
+        writeConfig(config, elementCount);
+
+        history = (config.getHistorySize() > 0)
+                ? new ScopeFrameHistory(config.getHistorySize(), elementCount)
+                : null;
+
+        // listening before the first tick, so that the recording starts with it
+        recorder = config.isRecorded() ? startRecorder() : null;
+
+        lock();
+        try {
+            processTask = start(0);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Records the frames to the <code>scope.recordDir</code> directory
+     * (<code>recordings</code> by default) in segments of
+     * <code>scope.recordSegmentMB</code> MiB (256 by default).
+     */
+    private ScopeRecorder startRecorder() {
+        try {
+            return new ScopeRecorder(this,
+                    Paths.get(System.getProperty("scope.recordDir", "recordings")),
+                    name.replaceAll("[^A-Za-z0-9._-]", "_"),
+                    Long.getLong("scope.recordSegmentMB", 256L) << 20,
+                    Integer.getInteger("scope.recordIndexInterval", 100),
+                    Integer.getInteger("scope.recordQueue", 64));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to record " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeConfig(ScopeChannelConfig config, int sampleCount) {
+        configField.getIntField(SCOPE_CONFIG_N).put(sampleCount);
+        configField.getDoubleField(SCOPE_CONFIG_RATE).put(config.getRate());
+        configField.getDoubleField(SCOPE_CONFIG_PERIOD).put(config.getPeriod());
+        configField.getDoubleField(SCOPE_CONFIG_WAVELENGTH).put(config.getWavelength());
+        configField.getDoubleField(SCOPE_CONFIG_STDDEV).put(config.getStdDev());
+        configField.getDoubleField(SCOPE_CONFIG_MIN).put(config.getMin());
+        configField.getDoubleField(SCOPE_CONFIG_MAX).put(config.getMax());
+    }
+
+    /**
+     * Schedules the updates of the current signal, must be called holding the
+     * lock. A replay paces itself from the time stamps of its records, the
+     * generators tick at the fixed rate of their parameters.
+     */
+    private ScopeScheduler.Timeout start(long delayNanos) {
+        if (signal instanceof ScopeReplay) {
+            ScopeReplay replay = (ScopeReplay) signal;
+            return scheduler.schedule(name, () -> replay(replay), delayNanos, TimeUnit.NANOSECONDS);
+        }
+        return scheduler.scheduleAtFixedRate(name, this::process, delayNanos, config.getUpdatePeriodNanos(),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Publishes the next record of the replay and schedules the following one,
+     * until the replay is stopped or replaced by a reconfiguration.
+     */
+    private void replay(ScopeReplay replay) {
+        if (signal != replay)
+            return;
+        process();
+
+        lock();
+        try {
+            if (stopped || signal != replay)
+                return;
+            long delayNanos = replay.getNextDelayNanos();
+            if (delayNanos > 0)
+                processTask = scheduler.schedule(name, () -> replay(replay), delayNanos, TimeUnit.NANOSECONDS);
+            else
+                scheduler.execute(name, () -> replay(replay));
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Retunes the running generator: the new signal replaces the current one
+     * between two ticks, and the generator is rescheduled only if the rate
+     * changed or the signal is a replay, which then starts over. The clients
+     * stay connected. Must be run on the event loop of the structure, see
+     * {@link #execute(Runnable)}.
+     * <p>
+     * The key of the structure does not change, the channels with the name of
+     * the initial parameters keep sharing the retuned generator.
+     *
+     * @param parameters
+     *            the parameters to change, with the keys of the channel names
+     * @throws IllegalArgumentException
+     *             if a parameter is unknown or invalid, changes a parameter
+     *             that does not apply to the signal, or the generator is
+     *             stopped
+     */
+    public void reconfigure(Map<String, String> parameters) {
+        ScopeChannelConfig next = config.with(parameters);
+        config.checkChange(next);
+        Signal nextSignal = next.createSignal();
+        boolean replay = nextSignal instanceof ScopeReplay;
+        if (history != null)
+            ScopeChannelConfig.checkHistory(history.getCapacity(), nextSignal.getSampleCount());
+
+        lock();
+        try {
+            if (stopped)
+                throw new IllegalArgumentException("the generator is stopped");
+            changedBitSet.clear();
+
+            // the count axis follows the new number of samples on the next frame
+            writeConfig(next, nextSignal.getSampleCount());
+            changedBitSet.set(configFieldOffset);
+
+            long periodNanos = next.getUpdatePeriodNanos();
+            boolean reschedule = replay || periodNanos != config.getUpdatePeriodNanos();
+            signal = nextSignal;
+            config = next;
+            if (reschedule) {
+                processTask.cancel();
+                processTask = start(replay ? 0 : periodNanos);
+            }
+
+            configVersion++;
+            version++;
+        } finally {
+            unlock();
+        }
+        notifyListeners(changedBitSet);
+
+        // a frame of the new signal right away, a replay publishes its own
+        if (!replay)
+            process();
+    }
+
+    /**
+     * @return the key of the parameter set of this structure
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Stops the signal generator and removes it from the scheduler. Once stopped
+     * the structure is no longer updated and cannot be restarted.
+     */
+    public void stop() {
+        lock();
+        try {
+            stopped = true;
+            processTask.cancel();
+        } finally {
+            unlock();
+        }
+        if (recorder != null)
+            recorder.close();
+    }
+
+    /**
+     * Runs the task on the event loop driving this structure, so that it never
+     * runs concurrently with {@link #process()}.
+     *
+     * @param task
+     *            the task to run
+     */
+    public void execute(Runnable task) {
+        scheduler.execute(name, task);
     }
 
     private void initialize(PVStructure pvStructure, String signalType, int elementCount) {
@@ -189,20 +468,108 @@ public class ScopePvStructure implements Lockable {
     }
 
     public void process() {
-        changedBitSet.clear();
+        final Instant now = Instant.now();
+        final PVDoubleArray value = (PVDoubleArray) valueField.getValue();
+        final int length = signal.getSampleCount();
+
+        // generate into an unpublished frame, outside of the lock
+        Frame next = freeFrames.poll();
+        if (next == null || next.values.length != length)
+            next = new Frame(length);
+        long generationStart = System.nanoTime();
+        signal.fill(now, next.values);
+        long generationNanos = System.nanoTime() - generationStart;
+
+        // a reconfiguration or a replayed record changed the number of samples
+        boolean resized = countField.getLength() != length;
+        double[] count = resized ? DoubleStream.iterate(0, n -> n + 1).limit(length).toArray() : null;
+        if (resized && history != null)
+            history.reset(length);
+
+        Frame previous;
+        lock();
+        try {
+            changedBitSet.clear();
+
+            if (resized) {
+                countField.shareData(count);
+                configField.getIntField(SCOPE_CONFIG_N).put(length);
+                changedBitSet.set(configFieldOffset);
+                configVersion++;
+            }
 
-        final double[] ARRAY_VALUE = signal.nextListDouble(Instant.now());
-        
-        valueField.getValue().setCapacity(ARRAY_VALUE.length);
-        valueField.getValue().setLength(ARRAY_VALUE.length);
-        ((PVDoubleArray)valueField.getValue()).put(0, ARRAY_VALUE.length, ARRAY_VALUE, 0);
+            // the value array shares the samples of the current frame
+            value.shareData(next.values);
+            changedBitSet.set(valueFieldOffset);
+
+            timeStamp.put(now.getEpochSecond(), now.getNano());
+            timeStampField.set(timeStamp);
+            changedBitSet.set(timeStampFieldOffset);
+            version++;
+
+            next.version = version;
+            next.configVersion = configVersion;
+            next.secondsPastEpoch = timeStamp.getSecondsPastEpoch();
+            next.nanoseconds = timeStamp.getNanoseconds();
+            next.references.set(1);
+            previous = frame;
+            frame = next;
+        } finally {
+            unlock();
+        }
+        if (previous != null)
+            previous.release();
+        // still the current frame, it is not recycled before the next tick
+        if (history != null)
+            history.record(next.values, next.secondsPastEpoch, next.nanoseconds);
+        long fanOutStart = System.nanoTime();
+        notifyListeners(changedBitSet);
+        stats.recordTick(generationNanos, System.nanoTime() - fanOutStart, 8L * length);
+    }
 
-        changedBitSet.set(valueFieldOffset);
+    /**
+     * Returns a reference to the frame of the last update without taking the
+     * lock.
+     *
+     * @return the current frame, to be released by the caller, or
+     *         <code>null</code> before the first update
+     */
+    public Frame acquireFrame() {
+        while (true) {
+            Frame current = frame;
+            if (current == null)
+                return null;
+            if (current.retain()) {
+                // a recycled frame may have been retained while being refilled
+                if (current == frame)
+                    return current;
+                current.release();
+            }
+        }
+    }
 
-        timeStamp.getCurrentTime();
-        timeStampField.set(timeStamp);
-        changedBitSet.set(timeStampFieldOffset);
-        notifyListeners(changedBitSet);
+    /**
+     * @return the number of updates of this structure so far, must be called
+     *         holding the lock
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of reconfigurations of this structure so far, must be
+     *         called holding the lock
+     */
+    public long getConfigVersion() {
+        return configVersion;
+    }
+
+    /**
+     * @return the fields changed by the last update, must be called holding the
+     *         lock
+     */
+    public BitSet getChangedBitSet() {
+        return changedBitSet;
     }
 
     @Override
@@ -217,32 +584,46 @@ public class ScopePvStructure implements Lockable {
 
     public void registerListener(ScopePvStructureListener listener)
     {
-        synchronized (listeners) {
-            listeners.add((ScopePvStructureListener) listener);
-        }
+        listeners.put(listener, Boolean.TRUE);
+        listenersChanged.set(true);
     }
     
+    /**
+     * Unregisters the listener. A notification already in progress may still
+     * reach it.
+     */
     public void unregisterListener(ScopePvStructureListener listener)
     {
-        synchronized (listeners) {
-            listeners.remove(listener);
-        }
+        if (listeners.remove(listener) != null)
+            listenersChanged.set(true);
+    }
+
+    /**
+     * @return the number of registered listeners
+     */
+    public int getListenerCount()
+    {
+        return listeners.size();
     }
     
     public void notifyListeners(BitSet changedBitSet)
     {
-        synchronized (listeners) {
-            for (ScopePvStructureListener listener : listeners)
-            {
-                try {
-                    listener.scopeStructureChanged(changedBitSet);
-                }
-                catch (Throwable th) {
-                    Writer writer = new StringWriter();
-                    PrintWriter printWriter = new PrintWriter(writer);
-                    th.printStackTrace(printWriter);
-                    System.err.println("Unexpected exception caught: " + writer);
-                }
+        ScopePvStructureListener[] snapshot = listenerSnapshot;
+        if (listenersChanged.getAndSet(false)) {
+            snapshot = listeners.keySet().toArray(NO_LISTENERS);
+            listenerSnapshot = snapshot;
+        }
+
+        for (ScopePvStructureListener listener : snapshot)
+        {
+            try {
+                listener.scopeStructureChanged(changedBitSet);
+            }
+            catch (Throwable th) {
+                Writer writer = new StringWriter();
+                PrintWriter printWriter = new PrintWriter(writer);
+                th.printStackTrace(printWriter);
+                System.err.println("Unexpected exception caught: " + writer);
             }
         }
     }
@@ -250,4 +631,34 @@ public class ScopePvStructure implements Lockable {
     public PVStructure getPVStructure() {
         return this.pvStructure;
     }
+
+    /**
+     * @return the recorder of the frames of this structure, or
+     *         <code>null</code> if they are not recorded
+     */
+    public ScopeRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * @return the last frames of this structure, or <code>null</code> if the
+     *         history is disabled
+     */
+    public ScopeFrameHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * @return the cache of the mappers of the requests made on this structure
+     */
+    public MapperCache getMapperCache() {
+        return mapperCache;
+    }
+
+    /**
+     * @return the performance counters of this structure
+     */
+    public ScopeStats getStats() {
+        return stats;
+    }
 }
@@ -0,0 +1,153 @@
+package org.epics.pvaccess.scope;
+
+/**
+ * A fast, non thread safe, pseudo random generator for the noise signals:
+ * xoroshiro128++ seeded through SplitMix64, with Marsaglia and Tsang's
+ * Ziggurat method for the normal distribution.
+ * <p>
+ * Unlike {@link java.util.Random} there is no atomic update of the state and
+ * no rejection loop computing logarithms for most of the gaussian samples, and
+ * the same seed gives the same sequence on every JVM.
+ */
+public final class ScopeRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    // Ziggurat of 128 layers, tables as in Marsaglia and Tsang (2000)
+    private static final int LAYERS = 128;
+    private static final int LAST = LAYERS - 1;
+    private static final double R = 3.442619855899;
+    private static final double ONE_OVER_R = 1 / R;
+    private static final double V = 9.91256303526217e-3;
+    private static final double MAX = 0x1.0p63;
+    private static final double ONE_OVER_MAX = 1 / MAX;
+    private static final long[] K = new long[LAYERS];
+    private static final double[] W = new double[LAYERS];
+    private static final double[] F = new double[LAYERS];
+
+    static {
+        double d = R;
+        double t = d;
+        double fd = gauss(d);
+        double q = V / fd;
+
+        K[0] = (long) ((d / q) * MAX);
+        K[1] = 0;
+        W[0] = q * ONE_OVER_MAX;
+        W[LAST] = d * ONE_OVER_MAX;
+        F[0] = 1;
+        F[LAST] = fd;
+
+        for (int i = LAST - 1; i >= 1; i--) {
+            d = Math.sqrt(-2 * Math.log(V / d + fd));
+            fd = gauss(d);
+            K[i + 1] = (long) ((d / t) * MAX);
+            t = d;
+            F[i] = fd;
+            W[i] = d * ONE_OVER_MAX;
+        }
+    }
+
+    private long s0;
+    private long s1;
+
+    /**
+     * @param seed
+     *            the seed, the same seed gives the same sequence
+     */
+    public ScopeRandom(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * Restarts the sequence of the given seed.
+     */
+    public void setSeed(long seed) {
+        s0 = mix64(seed + GOLDEN_GAMMA);
+        s1 = mix64(seed + 2 * GOLDEN_GAMMA);
+        if ((s0 | s1) == 0)
+            s1 = GOLDEN_GAMMA;
+    }
+
+    /**
+     * @return a well mixed function of the value, the SplitMix64 finalizer
+     */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public long nextLong() {
+        long s0 = this.s0;
+        long s1 = this.s1;
+        long result = Long.rotateLeft(s0 + s1, 17) + s0;
+        s1 ^= s0;
+        this.s0 = Long.rotateLeft(s0, 49) ^ s1 ^ (s1 << 21);
+        this.s1 = Long.rotateLeft(s1, 28);
+        return result;
+    }
+
+    /**
+     * @return a uniform double in [0, 1)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @return a uniform double in (0, 1], safe to take the logarithm of
+     */
+    private double nextPositiveDouble() {
+        return ((nextLong() >>> 11) + 1) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @return a standard normal double
+     */
+    public double nextGaussian() {
+        while (true) {
+            long j = nextLong();
+            int i = (int) (j & LAST);
+            if (Math.abs(j) < K[i])
+                return j * W[i];
+
+            double x = j * W[i];
+            if (i == 0) {
+                // the tail past R
+                double y;
+                do {
+                    y = -Math.log(nextPositiveDouble());
+                    x = -Math.log(nextPositiveDouble()) * ONE_OVER_R;
+                } while (y + y < x * x);
+                return (j > 0) ? R + x : -R - x;
+            }
+            // the wedge of the layer, or try again
+            if (F[i] + nextDouble() * (F[i - 1] - F[i]) < gauss(x))
+                return x;
+        }
+    }
+
+    /**
+     * Fills the elements <code>from</code> to <code>to</code> with uniform
+     * doubles in [0, 1).
+     */
+    public void fillUniform(double[] buffer, int from, int to) {
+        for (int i = from; i < to; i++)
+            buffer[i] = nextDouble();
+    }
+
+    /**
+     * Fills the elements <code>from</code> to <code>to</code> with standard
+     * normal doubles.
+     */
+    public void fillGaussian(double[] buffer, int from, int to) {
+        for (int i = from; i < to; i++)
+            buffer[i] = nextGaussian();
+    }
+
+    private static double gauss(double x) {
+        return Math.exp(-0.5 * x * x);
+    }
+}
@@ -0,0 +1,255 @@
+package org.epics.pvaccess.scope;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.epics.pvaccess.scope.ScopePvStructure.Frame;
+import org.epics.pvaccess.scope.ScopePvStructure.ScopePvStructureListener;
+import org.epics.pvdata.misc.BitSet;
+
+/**
+ * Records the frames of a structure to segmented, memory mapped files.
+ * <p>
+ * The generator thread only retains the new frame and hands it off to a
+ * bounded queue, never blocking: when the queue is full the frame is dropped
+ * and counted. A writer thread appends the frames to the current segment and
+ * starts a new one when it is full, without allocating per frame.
+ * <p>
+ * Each segment <code>prefix-NNNNNN.dat</code> is little endian and starts with
+ * a 16 bytes header, the magic <code>SCOPEREC</code> as a long and the format
+ * version as an int followed by 4 unused bytes. Then come the records, each
+ * made of the seconds past epoch (long), the nanoseconds (int), the number of
+ * samples (int) and the samples (doubles). A record with 0 samples, or the end
+ * of the file, ends the segment. Every <code>indexInterval</code> records the
+ * time stamp and file offset of the record are appended to the sparse index
+ * <code>prefix-NNNNNN.idx</code> as seconds (long), nanoseconds (int), 4 unused
+ * bytes and offset (long).
+ */
+public class ScopeRecorder implements ScopePvStructureListener {
+
+    static final long MAGIC = 0x5343_4f50_4552_4543L; // SCOPEREC
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 16;
+    static final int INDEX_ENTRY_SIZE = 24;
+
+    private final ScopePvStructure scopePvStructure;
+    private final Path directory;
+    private final String prefix;
+    private final long segmentSize;
+    private final int indexInterval;
+    private final ArrayBlockingQueue<Frame> queue;
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    // only accessed by the generator thread
+    private long lastVersion = -1;
+
+    // only accessed by the writer thread
+    private int segmentNumber = 0;
+    private FileChannel dataChannel;
+    private MappedByteBuffer data;
+    private DoubleBuffer doubles;
+    private FileChannel indexChannel;
+    private final ByteBuffer indexEntry = ByteBuffer.allocateDirect(INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long recordsInSegment;
+
+    /**
+     * Starts recording the frames of the structure.
+     *
+     * @param scopePvStructure
+     *            the structure to record
+     * @param directory
+     *            the directory of the segments, created if missing
+     * @param prefix
+     *            the prefix of the segment file names, the segments of a
+     *            previous recording with this prefix are deleted
+     * @param segmentSize
+     *            the size of a segment in bytes
+     * @param indexInterval
+     *            the number of records between two index entries
+     * @param queueCapacity
+     *            the number of frames waiting to be written before dropping
+     * @throws IOException
+     *             if the directory cannot be created or the previous
+     *             segments cannot be deleted
+     */
+    public ScopeRecorder(ScopePvStructure scopePvStructure, Path directory, String prefix, long segmentSize,
+            int indexInterval, int queueCapacity) throws IOException {
+        if (segmentSize <= HEADER_SIZE)
+            throw new IllegalArgumentException("segment size too small");
+        if (indexInterval <= 0)
+            throw new IllegalArgumentException("index interval must be a positive integer");
+        this.scopePvStructure = scopePvStructure;
+        this.directory = Files.createDirectories(directory);
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        this.indexInterval = indexInterval;
+        this.queue = new ArrayBlockingQueue<Frame>(queueCapacity);
+        deleteSegments();
+
+        writer = new Thread(this::write, "scope recorder " + prefix);
+        writer.setDaemon(true);
+        writer.start();
+
+        scopePvStructure.registerListener(this);
+    }
+
+    /**
+     * Deletes the segments of a previous recording with the same prefix, which
+     * would otherwise be replayed after the segments of this one.
+     */
+    private void deleteSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(prefix + "-")
+                        && name.substring(prefix.length() + 1).matches("\\d{6}\\.(dat|idx)"))
+                    Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * @return the number of frames written so far
+     */
+    public long getRecordedCount() {
+        return recorded.sum();
+    }
+
+    /**
+     * @return the number of frames dropped because the writer fell behind
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void scopeStructureChanged(BitSet changedBitSet) {
+        Frame frame = scopePvStructure.acquireFrame();
+        if (frame == null)
+            return;
+        if (frame.getVersion() == lastVersion) {
+            // no new frame, e.g. a reconfiguration
+            frame.release();
+            return;
+        }
+        lastVersion = frame.getVersion();
+        if (!queue.offer(frame)) {
+            frame.release();
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Stops recording, the frames already queued are written.
+     */
+    public void close() {
+        scopePvStructure.unregisterListener(this);
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Frame frame = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (frame == null)
+                    continue;
+                try {
+                    append(frame);
+                } finally {
+                    frame.release();
+                }
+            }
+        } catch (Throwable th) {
+            Writer writer = new StringWriter();
+            PrintWriter printWriter = new PrintWriter(writer);
+            th.printStackTrace(printWriter);
+            System.err.println("Unexpected exception caught: " + writer);
+        } finally {
+            closeSegment();
+            Frame frame;
+            while ((frame = queue.poll()) != null)
+                frame.release();
+        }
+    }
+
+    private void append(Frame frame) throws IOException {
+        double[] values = frame.getValues();
+        long size = RECORD_HEADER_SIZE + 8L * values.length;
+        if (data == null || data.remaining() < size)
+            openSegment(size);
+
+        int position = data.position();
+        if (recordsInSegment % indexInterval == 0) {
+            indexEntry.clear();
+            indexEntry.putLong(frame.getSecondsPastEpoch()).putInt(frame.getNanoseconds()).putInt(0).putLong(position);
+            indexEntry.flip();
+            while (indexEntry.hasRemaining())
+                indexChannel.write(indexEntry);
+        }
+
+        data.putLong(frame.getSecondsPastEpoch()).putInt(frame.getNanoseconds()).putInt(values.length);
+        doubles.position((position + RECORD_HEADER_SIZE) / 8);
+        doubles.put(values, 0, values.length);
+        data.position((int) (position + size));
+        recordsInSegment++;
+        recorded.increment();
+    }
+
+    private void openSegment(long recordSize) throws IOException {
+        closeSegment();
+
+        long size = Math.max(segmentSize, HEADER_SIZE + recordSize);
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("segment larger than 2 GiB");
+        String name = String.format("%s-%06d", prefix, segmentNumber++);
+        dataChannel = FileChannel.open(directory.resolve(name + ".dat"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        indexChannel = FileChannel.open(directory.resolve(name + ".idx"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        data = dataChannel.map(MapMode.READ_WRITE, 0, size);
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        // a view of the whole segment, the records keep the samples 8 bytes aligned
+        doubles = data.asDoubleBuffer();
+        data.putLong(MAGIC).putInt(FORMAT_VERSION).putInt(0);
+        recordsInSegment = 0;
+    }
+
+    private void closeSegment() {
+        try {
+            if (dataChannel != null)
+                dataChannel.close();
+            if (indexChannel != null)
+                indexChannel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close the segment of " + prefix + ": " + e.getMessage());
+        }
+        dataChannel = null;
+        indexChannel = null;
+        data = null;
+        doubles = null;
+    }
+}
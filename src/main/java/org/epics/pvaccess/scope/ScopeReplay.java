@@ -0,0 +1,183 @@
+package org.epics.pvaccess.scope;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.epics.pvaccess.scope.SignalGenerator.Signal;
+
+/**
+ * Replays the frames written by a {@link ScopeRecorder}, in a loop.
+ * <p>
+ * All the segments of the recording are memory mapped read only when the
+ * replay is created, the samples of each record are then read straight from
+ * the mapping into the frame buffer. The records are paced by their recorded
+ * time stamps divided by the speed: 1 replays at the original rate, N
+ * replays N times faster and an infinite speed replays as fast as the event
+ * loop allows. The frames are published with the time of the replay.
+ */
+public class ScopeReplay implements Signal {
+
+    private final Path source;
+    private final double speed;
+    private final MappedByteBuffer[] segments;
+    private final DoubleBuffer[] views;
+
+    // only accessed by the event loop of the structure
+    private int segmentIndex = -1;
+    private int position;
+    private int sampleCount;
+    private long recordNanos;
+    private long previousRecordNanos;
+    private long baseNanos;
+    private long baseRecordNanos;
+    private boolean started = false;
+
+    /**
+     * Maps the segments <code>prefix-NNNNNN.dat</code> of a recording.
+     *
+     * @param directory
+     *            the directory of the segments
+     * @param prefix
+     *            the prefix of the segment file names
+     * @param speed
+     *            the replay speed, {@link Double#POSITIVE_INFINITY} for as
+     *            fast as possible
+     * @throws IOException
+     *             if there is no recording or a segment is not valid
+     * @throws IllegalArgumentException
+     *             if the prefix leads out of the directory
+     */
+    public ScopeReplay(Path directory, String prefix, double speed) throws IOException {
+        if (!(speed > 0))
+            throw new IllegalArgumentException("speed must be positive");
+        this.source = directory.resolve(prefix);
+        this.speed = speed;
+
+        Path root = directory.toAbsolutePath().normalize();
+        List<MappedByteBuffer> mapped = new ArrayList<MappedByteBuffer>();
+        while (true) {
+            Path path = directory.resolve(String.format("%s-%06d.dat", prefix, mapped.size()));
+            // the prefix must not lead out of the recording directory
+            if (!root.equals(path.toAbsolutePath().normalize().getParent()))
+                throw new IllegalArgumentException("not a recording of " + directory + ": " + prefix);
+            if (!Files.isRegularFile(path))
+                break;
+            mapped.add(map(path));
+        }
+        if (mapped.isEmpty())
+            throw new IOException("no recording " + source);
+
+        segments = mapped.toArray(new MappedByteBuffer[mapped.size()]);
+        views = new DoubleBuffer[segments.length];
+        for (int i = 0; i < segments.length; i++)
+            views[i] = segments[i].asDoubleBuffer();
+
+        readRecord();
+        if (sampleCount == 0)
+            throw new IOException("empty recording " + source);
+        previousRecordNanos = recordNanos;
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < ScopeRecorder.HEADER_SIZE || size > Integer.MAX_VALUE)
+                throw new IOException("not a recording segment: " + path);
+            MappedByteBuffer data = channel.map(MapMode.READ_ONLY, 0, size);
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.getLong(0) != ScopeRecorder.MAGIC || data.getInt(8) != ScopeRecorder.FORMAT_VERSION)
+                throw new IOException("not a recording segment: " + path);
+            return data;
+        }
+    }
+
+    /**
+     * Moves to the record at the current position, or to the first record of
+     * the next segment when the current one is exhausted, wrapping around at
+     * the end of the recording. Leaves 0 samples if there is no record at all.
+     */
+    private void readRecord() {
+        for (int tried = 0; tried <= segments.length; tried++) {
+            if (segmentIndex >= 0) {
+                MappedByteBuffer data = segments[segmentIndex];
+                int remaining = data.limit() - position;
+                if (remaining >= ScopeRecorder.RECORD_HEADER_SIZE) {
+                    int count = data.getInt(position + 12);
+                    if (count > 0 && remaining - ScopeRecorder.RECORD_HEADER_SIZE >= 8L * count) {
+                        recordNanos = data.getLong(position) * 1000000000L + data.getInt(position + 8);
+                        sampleCount = count;
+                        return;
+                    }
+                }
+            }
+            segmentIndex = (segmentIndex + 1) % segments.length;
+            position = ScopeRecorder.HEADER_SIZE;
+        }
+        sampleCount = 0;
+    }
+
+    /**
+     * @return the number of samples of the next record
+     */
+    @Override
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Copies the samples of the next record into the buffer and moves to the
+     * following one; the instant is ignored.
+     */
+    @Override
+    public void fill(Instant instant, double[] buffer) {
+        DoubleBuffer doubles = views[segmentIndex];
+        doubles.position((position + ScopeRecorder.RECORD_HEADER_SIZE) / 8);
+        doubles.get(buffer, 0, sampleCount);
+
+        position += ScopeRecorder.RECORD_HEADER_SIZE + 8 * sampleCount;
+        previousRecordNanos = recordNanos;
+        readRecord();
+    }
+
+    /**
+     * Computes the delay until the next record is due. The deadlines are
+     * measured from the start of the replay, not from the previous record, so
+     * that the rounding of the timers does not accumulate.
+     *
+     * @return the delay before the next record in nanoseconds, 0 when
+     *         replaying as fast as possible or wrapping around
+     */
+    public long getNextDelayNanos() {
+        if (Double.isInfinite(speed))
+            return 0;
+        long now = System.nanoTime();
+        if (!started) {
+            started = true;
+            baseNanos = now;
+            baseRecordNanos = previousRecordNanos;
+        } else if (recordNanos < previousRecordNanos) {
+            // wrapping around, the first record is due right away
+            baseNanos = now;
+            baseRecordNanos = recordNanos;
+        }
+        long deadline = baseNanos + Math.round((recordNanos - baseRecordNanos) / speed);
+        return Math.max(0, deadline - now);
+    }
+
+    /**
+     * @return the path prefix of the replayed segments
+     */
+    public Path getSource() {
+        return source;
+    }
+}
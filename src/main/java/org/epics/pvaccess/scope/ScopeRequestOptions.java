@@ -0,0 +1,55 @@
+package org.epics.pvaccess.scope;
+
+import org.epics.pvdata.factory.ConvertFactory;
+import org.epics.pvdata.pv.Convert;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVScalar;
+import org.epics.pvdata.pv.PVStructure;
+
+/**
+ * Helpers reading the record options of a pvRequest, e.g. the
+ * <code>queueSize</code> of <code>record[queueSize=4]field()</code>.
+ */
+final class ScopeRequestOptions {
+    private static final Convert convert = ConvertFactory.getConvert();
+
+    private ScopeRequestOptions() {
+    }
+
+    /**
+     * @param pvRequest
+     *            the pvRequest, may be <code>null</code>
+     * @param name
+     *            the name of the option
+     * @return the value of the option <code>record._options.name</code>, or
+     *         <code>null</code> if the request does not set it
+     */
+    static String getRecordOption(PVStructure pvRequest, String name) {
+        if (pvRequest == null)
+            return null;
+        PVField pvField = pvRequest.getSubField("record._options." + name);
+        if (pvField instanceof PVScalar)
+            return convert.toString((PVScalar) pvField);
+        return null;
+    }
+
+    /**
+     * @param pvRequest
+     *            the pvRequest, may be <code>null</code>
+     * @param name
+     *            the name of the option
+     * @param defaultValue
+     *            the value to use if the option is missing or not an integer
+     * @return the integer value of the option <code>record._options.name</code>
+     */
+    static int getRecordOption(PVStructure pvRequest, String name, int defaultValue) {
+        String value = getRecordOption(pvRequest, name);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
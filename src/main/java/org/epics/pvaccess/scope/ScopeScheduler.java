@@ -0,0 +1,306 @@
+package org.epics.pvaccess.scope;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The process wide tick engine driving all the signal producers.
+ * <p>
+ * The engine runs a fixed number of event loop threads (by default one per
+ * core, see the <code>scope.eventLoops</code> system property). Every task is
+ * submitted with a key, typically the channel name, and all the tasks of the
+ * same key are run by the same event loop. So the tasks of one channel never
+ * run concurrently and the loops never lock each other. Each loop keeps its
+ * timers in a hashed timing wheel with a resolution of
+ * <code>scope.tickMicros</code> microseconds (1 ms by default) and only wakes
+ * up when a timer is due or a task is submitted. A periodic task runs at most
+ * once per tick, the runs it misses are skipped, so the channels cannot ask
+ * for a rate above the tick rate, see {@link ScopeChannelConfig}.
+ */
+public class ScopeScheduler {
+
+    /**
+     * A handle on a scheduled task.
+     */
+    public interface Timeout {
+        /**
+         * Cancels the task, the task is not run anymore once this returns unless
+         * it is already running.
+         */
+        public void cancel();
+    }
+
+    private static final int WHEEL_SIZE = 512;
+
+    private static final ScopeScheduler instance = new ScopeScheduler(
+            Integer.getInteger("scope.eventLoops", Runtime.getRuntime().availableProcessors()),
+            Long.getLong("scope.tickMicros", 1000L));
+
+    /**
+     * @return the engine shared by all the channels of this process
+     */
+    public static ScopeScheduler getInstance() {
+        return instance;
+    }
+
+    private final EventLoop[] loops;
+    private final long tickNanos;
+
+    ScopeScheduler(int loopCount, long tickMicros) {
+        if (loopCount <= 0)
+            throw new IllegalArgumentException("Number of event loops must be a positive integer.");
+        if (tickMicros <= 0)
+            throw new IllegalArgumentException("Tick duration must be positive.");
+
+        this.tickNanos = TimeUnit.MICROSECONDS.toNanos(tickMicros);
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop("scope event loop " + i);
+            loops[i].start();
+        }
+    }
+
+    /**
+     * @return the number of event loop threads
+     */
+    public int getEventLoopCount() {
+        return loops.length;
+    }
+
+    /**
+     * Runs the task on the event loop of the given key as soon as possible.
+     *
+     * @param key
+     *            the key selecting the event loop
+     * @param task
+     *            the task to run
+     */
+    public void execute(Object key, Runnable task) {
+        EventLoop loop = loopFor(key);
+        loop.tasks.add(task);
+        loop.wakeup();
+    }
+
+    /**
+     * Runs the task once on the event loop of the given key after the given
+     * delay.
+     *
+     * @param key
+     *            the key selecting the event loop
+     * @param task
+     *            the task to run
+     * @param delay
+     *            the delay
+     * @param unit
+     *            the unit of the delay
+     * @return the handle to cancel the task
+     */
+    public Timeout schedule(Object key, Runnable task, long delay, TimeUnit unit) {
+        return submit(key, task, unit.toNanos(delay), 0);
+    }
+
+    /**
+     * Runs the task periodically on the event loop of the given key. Unlike
+     * {@link java.util.concurrent.ScheduledExecutorService} runs that are
+     * missed because the loop fell behind are skipped instead of being run in
+     * a burst.
+     *
+     * @param key
+     *            the key selecting the event loop
+     * @param task
+     *            the task to run
+     * @param initialDelay
+     *            the delay before the first run
+     * @param period
+     *            the period between two runs
+     * @param unit
+     *            the unit of the delay and period
+     * @return the handle to cancel the task
+     */
+    public Timeout scheduleAtFixedRate(Object key, Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0)
+            throw new IllegalArgumentException("period must be positive");
+        return submit(key, task, unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+
+    private Timeout submit(Object key, Runnable task, long delayNanos, long periodNanos) {
+        EventLoop loop = loopFor(key);
+        TimerTask timerTask = new TimerTask(task, System.nanoTime() + Math.max(0, delayNanos), periodNanos);
+        loop.newTimers.add(timerTask);
+        loop.wakeup();
+        return timerTask;
+    }
+
+    private EventLoop loopFor(Object key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return loops[(hash & 0x7fffffff) % loops.length];
+    }
+
+    private static void reportFailure(Throwable th) {
+        Writer writer = new StringWriter();
+        PrintWriter printWriter = new PrintWriter(writer);
+        th.printStackTrace(printWriter);
+        System.err.println("Unexpected exception caught: " + writer);
+    }
+
+    private static class TimerTask implements Timeout {
+        private final Runnable task;
+        private final long periodNanos;
+        private long deadline;
+        private long deadlineTick;
+        private TimerTask next;
+        private volatile boolean cancelled = false;
+
+        TimerTask(Runnable task, long deadline, long periodNanos) {
+            this.task = task;
+            this.deadline = deadline;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private class EventLoop extends Thread {
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final ConcurrentLinkedQueue<TimerTask> newTimers = new ConcurrentLinkedQueue<TimerTask>();
+
+        // only accessed by the loop thread
+        private final TimerTask[] wheel = new TimerTask[WHEEL_SIZE];
+        private final long startTime = System.nanoTime();
+        private long currentTick = 0;
+        private int timerCount = 0;
+        private TimerTask expired;
+
+        EventLoop(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        void wakeup() {
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                long now = System.nanoTime();
+                long nowTick = (now - startTime) / tickNanos;
+
+                TimerTask timerTask;
+                while ((timerTask = newTimers.poll()) != null)
+                    insert(timerTask);
+
+                expire(nowTick);
+                runExpired(now);
+
+                // at most one tick of tasks, a task resubmitting itself must
+                // not starve the timers of the loop
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Throwable th) {
+                        reportFailure(th);
+                    }
+                    if (System.nanoTime() - now >= tickNanos)
+                        break;
+                }
+
+                if (tasks.isEmpty() && newTimers.isEmpty())
+                    LockSupport.parkNanos(this, nextWakeup(nowTick) - (System.nanoTime() - startTime));
+            }
+        }
+
+        private void insert(TimerTask timerTask) {
+            if (timerTask.cancelled)
+                return;
+            long tick = (timerTask.deadline - startTime + tickNanos - 1) / tickNanos;
+            timerTask.deadlineTick = Math.max(tick, currentTick + 1);
+            int bucket = (int) (timerTask.deadlineTick & (WHEEL_SIZE - 1));
+            timerTask.next = wheel[bucket];
+            wheel[bucket] = timerTask;
+            timerCount++;
+        }
+
+        /**
+         * Moves all the timers due at or before the given tick to the expired
+         * list, dropping the cancelled ones on the way.
+         */
+        private void expire(long nowTick) {
+            long from = currentTick + 1;
+            if (nowTick - from >= WHEEL_SIZE)
+                from = nowTick - WHEEL_SIZE + 1;
+            for (long tick = from; tick <= nowTick; tick++) {
+                int bucket = (int) (tick & (WHEEL_SIZE - 1));
+                TimerTask previous = null;
+                TimerTask timerTask = wheel[bucket];
+                while (timerTask != null) {
+                    TimerTask next = timerTask.next;
+                    if (timerTask.cancelled || timerTask.deadlineTick <= nowTick) {
+                        if (previous == null)
+                            wheel[bucket] = next;
+                        else
+                            previous.next = next;
+                        timerCount--;
+                        if (!timerTask.cancelled) {
+                            timerTask.next = expired;
+                            expired = timerTask;
+                        }
+                    } else {
+                        previous = timerTask;
+                    }
+                    timerTask = next;
+                }
+            }
+            currentTick = Math.max(currentTick, nowTick);
+        }
+
+        private void runExpired(long now) {
+            while (expired != null) {
+                TimerTask timerTask = expired;
+                expired = timerTask.next;
+                timerTask.next = null;
+                if (timerTask.cancelled)
+                    continue;
+
+                try {
+                    timerTask.task.run();
+                } catch (Throwable th) {
+                    reportFailure(th);
+                }
+
+                if (timerTask.periodNanos > 0 && !timerTask.cancelled) {
+                    timerTask.deadline += timerTask.periodNanos;
+                    if (timerTask.deadline <= now) {
+                        // skip the missed runs
+                        long missed = (now - timerTask.deadline) / timerTask.periodNanos + 1;
+                        timerTask.deadline += missed * timerTask.periodNanos;
+                    }
+                    insert(timerTask);
+                }
+            }
+        }
+
+        /**
+         * @return the time, relative to the start of the loop, at which the next
+         *         non empty bucket of the wheel is due
+         */
+        private long nextWakeup(long nowTick) {
+            if (timerCount == 0)
+                return Long.MAX_VALUE / 2;
+            for (long tick = nowTick + 1; tick <= nowTick + WHEEL_SIZE; tick++) {
+                if (wheel[(int) (tick & (WHEEL_SIZE - 1))] != null)
+                    return tick * tickNanos;
+            }
+            return (nowTick + WHEEL_SIZE) * tickNanos;
+        }
+    }
+}
@@ -1,19 +1,18 @@
 package org.epics.pvaccess.scope;
 
+import org.epics.pvaccess.PVAException;
 import org.epics.pvaccess.server.impl.remote.ServerContextImpl;
 import org.epics.pvaccess.server.impl.remote.plugins.DefaultBeaconServerDataProvider;
 
 public class ScopeServer {
 
     public static void main(String[] args) {
-        // Create a context with default configuration values.
-        final ServerContextImpl context = new ServerContextImpl();
-        context.setBeaconServerStatusProvider(new DefaultBeaconServerDataProvider(context));
-        
+        final ServerContextImpl context;
         try {
-            context.initialize(new ScopeChannelProviderImpl());
+            context = start();
         } catch (Throwable th) {
             th.printStackTrace();
+            return;
         }
 
         // Display basic information about the context.
@@ -22,6 +21,21 @@ public class ScopeServer {
         context.getChannelProviders().stream().forEach(p->{
             System.out.println(p.getProviderName());
         });
+    }
+
+    /**
+     * Starts a server of the scope channels, with the default configuration
+     * values, running on its own thread.
+     *
+     * @return the context of the server, destroy it to stop the server
+     * @throws PVAException
+     *             if the server could not be initialized
+     */
+    public static ServerContextImpl start() throws PVAException {
+        // Create a context with default configuration values.
+        final ServerContextImpl context = new ServerContextImpl();
+        context.setBeaconServerStatusProvider(new DefaultBeaconServerDataProvider(context));
+        context.initialize(new ScopeChannelProviderImpl());
 
         new Thread(new Runnable() {
             
@@ -37,5 +51,6 @@ public class ScopeServer {
                 }
             }
         }, "pvAccess server").start();
+        return context;
     }
 }
@@ -0,0 +1,253 @@
+package org.epics.pvaccess.scope;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.epics.pvdata.factory.ConvertFactory;
+import org.epics.pvdata.factory.PVDataFactory;
+import org.epics.pvdata.misc.BitSet;
+import org.epics.pvdata.pv.Convert;
+import org.epics.pvdata.pv.DoubleArrayData;
+import org.epics.pvdata.pv.PVDataCreate;
+import org.epics.pvdata.pv.PVDoubleArray;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVInt;
+import org.epics.pvdata.pv.PVLong;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.PVStructureArray;
+import org.epics.pvdata.pv.StructureArrayData;
+
+/**
+ * The snapshots of a structure for one request shape.
+ * <p>
+ * The copy of a tick is made once, by the first subscriber delivering it, into
+ * a {@link Snapshot} that every other subscriber with the same request shape
+ * then shares; so the copy cost of a tick does not depend on the number of
+ * subscribers. A snapshot is never written while referenced, it goes back to
+ * the pool when its last reference is released.
+ * <p>
+ * The samples and the time stamp are copied from the published
+ * {@link ScopePvStructure.Frame frame}, without the lock of the structure, so
+ * the copies never delay the tick. The lock is only taken for the other
+ * fields, when a snapshot is new or the structure was reconfigured since it
+ * was last written. With a {@link ScopeDecimator} the signal arrays are
+ * reduced while copying, once per version for all the subscribers of the
+ * shape.
+ */
+public class ScopeSnapshotPool {
+
+    private static final PVDataCreate pvDataCreate = PVDataFactory.getPVDataCreate();
+    private static final Convert convert = ConvertFactory.getConvert();
+
+    /**
+     * An immutable, reference counted copy of the structure at one version.
+     */
+    public class Snapshot {
+        private final PVStructure pvStructure;
+        private final AtomicInteger references = new AtomicInteger();
+        private long version = -1;
+        private long configVersion = -1;
+        // the fields written from the frames, null if not requested
+        private PVDoubleArray pvCount;
+        private PVDoubleArray pvValue;
+        private PVLong pvSecondsPastEpoch;
+        private PVInt pvNanoseconds;
+
+        private Snapshot(PVStructure pvStructure) {
+            this.pvStructure = pvStructure;
+        }
+
+        /**
+         * @return the copy, must not be modified
+         */
+        public PVStructure getPVStructure() {
+            return pvStructure;
+        }
+
+        /**
+         * @return the version of the structure this is a copy of
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Drops a reference, the last one returns the snapshot to the pool.
+         */
+        public void release() {
+            if (references.decrementAndGet() == 0)
+                free.add(this);
+        }
+    }
+
+    private final ScopePvStructure scopePvStructure;
+    private final PVStructure originStructure;
+    private final Mapper mapper;
+    private final ScopeDecimator decimator;
+    private final ConcurrentLinkedQueue<Snapshot> free = new ConcurrentLinkedQueue<Snapshot>();
+    private final PVStructureArray originSignal;
+    private final int configOffset;
+
+    // guarded by this
+    private final BitSet originBitSet;
+    private final BitSet copyBitSet;
+    private final BitSet staticBitSet; // the top level fields not written from the frames
+    private final StructureArrayData originData = new StructureArrayData();
+    private final StructureArrayData copyData = new StructureArrayData();
+    private final DoubleArrayData countData = new DoubleArrayData();
+    private final DoubleArrayData toData = new DoubleArrayData();
+    private double[] originCount = new double[0];
+    private long originConfigVersion = -1;
+    private Snapshot current;
+
+    ScopeSnapshotPool(ScopePvStructure scopePvStructure, Mapper mapper, ScopeDecimator decimator) {
+        this.scopePvStructure = scopePvStructure;
+        this.originStructure = scopePvStructure.getPVStructure();
+        this.mapper = mapper;
+        this.originBitSet = new BitSet(originStructure.getNumberFields());
+        this.copyBitSet = new BitSet(mapper.getCopyStructure().getNumberFields());
+        this.originSignal = originStructure.getSubField(PVStructureArray.class, "signal");
+        this.configOffset = originStructure.getSubField("config").getFieldOffset();
+        this.staticBitSet = new BitSet(originStructure.getNumberFields());
+        for (PVField pvField : originStructure.getPVFields())
+            staticBitSet.set(pvField.getFieldOffset());
+        staticBitSet.clear(originSignal.getFieldOffset());
+
+        // nothing to reduce if the signal is not requested
+        this.decimator = (mapper.getCopyStructureIndex(originSignal.getFieldOffset()) < 0) ? null : decimator;
+    }
+
+    /**
+     * @return the mapper of the request shape, its copy structure is never
+     *         written
+     */
+    public Mapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Returns a reference to the snapshot of a frame, copying it on the first
+     * call for that frame. Must not be called holding the structure lock.
+     *
+     * @param frame
+     *            the frame, referenced by the caller for the duration of the
+     *            call
+     * @return the snapshot, to be released by the caller
+     */
+    public synchronized Snapshot acquire(ScopePvStructure.Frame frame) {
+        if (current == null || current.version != frame.getVersion()) {
+            Snapshot snapshot = free.poll();
+            if (snapshot == null)
+                snapshot = new Snapshot(mapper.createCopyStructure());
+            copy(frame, snapshot);
+
+            // the pool keeps a reference on the current snapshot
+            snapshot.references.set(1);
+            Snapshot previous = current;
+            current = snapshot;
+            if (previous != null)
+                previous.release();
+        }
+        current.references.incrementAndGet();
+        return current;
+    }
+
+    private void copy(ScopePvStructure.Frame frame, Snapshot snapshot) {
+        boolean reconfigured = snapshot.configVersion != frame.getConfigVersion();
+        if (reconfigured || originConfigVersion != frame.getConfigVersion()) {
+            // the small fields that only change with the configuration
+            scopePvStructure.lock();
+            try {
+                if (originConfigVersion != frame.getConfigVersion()) {
+                    // the count axis is replaced, never written, on a reconfiguration
+                    originSignal.get(0, originSignal.getLength(), originData);
+                    PVDoubleArray count = originData.data[0].getSubField(PVDoubleArray.class, "value");
+                    count.get(0, count.getLength(), countData);
+                    originCount = (countData.data.length == count.getLength())
+                            ? countData.data : Arrays.copyOf(countData.data, count.getLength());
+                    originConfigVersion = frame.getConfigVersion();
+                }
+                if (reconfigured) {
+                    originBitSet.clear();
+                    if (snapshot.configVersion < 0)
+                        originBitSet.or(staticBitSet);
+                    else
+                        originBitSet.set(configOffset);
+                    mapper.updateCopyStructureOriginBitSet(snapshot.pvStructure, originBitSet, copyBitSet);
+                    if (snapshot.configVersion < 0)
+                        attach(snapshot);
+                }
+            } finally {
+                scopePvStructure.unlock();
+            }
+            snapshot.configVersion = frame.getConfigVersion();
+        }
+
+        double[] values = frame.getValues();
+        if (decimator != null) {
+            int count = decimator.select(values, values.length);
+            int[] indices = decimator.getIndices();
+            select(values, indices, count, snapshot.pvValue);
+            if (originCount.length == values.length)
+                select(originCount, indices, count, snapshot.pvCount);
+        } else if (snapshot.pvValue != null) {
+            if (snapshot.pvValue.getLength() != values.length)
+                snapshot.pvValue.setLength(values.length);
+            snapshot.pvValue.put(0, values.length, values, 0);
+            if (reconfigured) {
+                snapshot.pvCount.setLength(originCount.length);
+                snapshot.pvCount.put(0, originCount.length, originCount, 0);
+            }
+        }
+        if (snapshot.pvSecondsPastEpoch != null)
+            snapshot.pvSecondsPastEpoch.put(frame.getSecondsPastEpoch());
+        if (snapshot.pvNanoseconds != null)
+            snapshot.pvNanoseconds.put(frame.getNanoseconds());
+        snapshot.version = frame.getVersion();
+    }
+
+    /**
+     * Creates the signal arrays of a new snapshot, with the small fields of
+     * the origin but without the samples, and finds the fields written from
+     * the frames. Must be called holding the structure lock.
+     */
+    private void attach(Snapshot snapshot) {
+        int signalIndex = mapper.getCopyStructureIndex(originSignal.getFieldOffset());
+        if (signalIndex >= 0) {
+            originSignal.get(0, originSignal.getLength(), originData);
+            PVStructure[] elements = new PVStructure[originSignal.getLength()];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = pvDataCreate.createPVStructure(originData.data[i].getStructure());
+                for (PVField pvField : originData.data[i].getPVFields()) {
+                    if (!pvField.getFieldName().equals("value"))
+                        convert.copy(pvField, elements[i].getSubField(pvField.getFieldName()));
+                }
+            }
+            PVStructureArray copySignal = (PVStructureArray) snapshot.pvStructure.getSubField(signalIndex);
+            copySignal.setLength(0);
+            copySignal.put(0, elements.length, elements, 0);
+
+            // the last array of the signal holds the values, the others the axes
+            snapshot.pvCount = elements[0].getSubField(PVDoubleArray.class, "value");
+            snapshot.pvValue = elements[elements.length - 1].getSubField(PVDoubleArray.class, "value");
+        }
+        snapshot.pvSecondsPastEpoch = (PVLong) getCopyField(snapshot, "timeStamp.secondsPastEpoch");
+        snapshot.pvNanoseconds = (PVInt) getCopyField(snapshot, "timeStamp.nanoseconds");
+    }
+
+    private PVField getCopyField(Snapshot snapshot, String name) {
+        int index = mapper.getCopyStructureIndex(originStructure.getSubField(name).getFieldOffset());
+        return (index < 0) ? null : snapshot.pvStructure.getSubField(index);
+    }
+
+    /**
+     * Copies the samples selected by the decimator.
+     */
+    private void select(double[] from, int[] indices, int count, PVDoubleArray to) {
+        to.setLength(count);
+        to.get(0, count, toData);
+        for (int j = 0; j < count; j++)
+            toData.data[j] = from[indices[j]];
+    }
+}
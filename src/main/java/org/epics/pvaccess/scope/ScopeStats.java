@@ -0,0 +1,130 @@
+package org.epics.pvaccess.scope;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The performance counters of one channel, or of all the channels of the
+ * process, published by the <code>scope:stats</code> channel.
+ * <p>
+ * The counters are striped {@link LongAdder}s, updated by the ticks and the
+ * deliveries without any lock; the counters of a channel also add to the
+ * global ones, which keep counting the channels that are gone. The times are
+ * in nanoseconds and, like the other counters, only increase; the queue depth
+ * is the number of updates queued and not yet polled by the subscribers.
+ */
+public class ScopeStats {
+
+    private static final ScopeStats global = new ScopeStats(null);
+
+    /**
+     * @return the counters of all the channels of this process
+     */
+    public static ScopeStats getGlobal() {
+        return global;
+    }
+
+    private final ScopeStats parent;
+    private final LongAdder ticks = new LongAdder();
+    private final LongAdder generationNanos = new LongAdder();
+    private final LongAdder copyNanos = new LongAdder();
+    private final LongAdder fanOutNanos = new LongAdder();
+    private final LongAdder queueDepth = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * @param parent
+     *            the counters to add to as well, <code>null</code> for none
+     */
+    ScopeStats(ScopeStats parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Counts a tick of the generator.
+     *
+     * @param generationNanos
+     *            the time taken to generate the frame
+     * @param fanOutNanos
+     *            the time taken to notify the subscribers
+     * @param bytes
+     *            the size of the samples of the frame
+     */
+    public void recordTick(long generationNanos, long fanOutNanos, long bytes) {
+        ticks.increment();
+        this.generationNanos.add(generationNanos);
+        this.fanOutNanos.add(fanOutNanos);
+        this.bytes.add(bytes);
+        if (parent != null)
+            parent.recordTick(generationNanos, fanOutNanos, bytes);
+    }
+
+    /**
+     * Counts the time taken to copy an update for a subscriber.
+     */
+    public void recordCopy(long nanos) {
+        copyNanos.add(nanos);
+        if (parent != null)
+            parent.recordCopy(nanos);
+    }
+
+    /**
+     * Counts updates queued, or polled when negative.
+     */
+    public void recordQueued(long count) {
+        queueDepth.add(count);
+        if (parent != null)
+            parent.recordQueued(count);
+    }
+
+    /**
+     * Counts an update folded into a full queue of a subscriber.
+     */
+    public void recordOverrun() {
+        overruns.increment();
+        if (parent != null)
+            parent.recordOverrun();
+    }
+
+    /**
+     * Counts frames that a subscriber never received.
+     */
+    public void recordDropped(long frames) {
+        droppedFrames.add(frames);
+        if (parent != null)
+            parent.recordDropped(frames);
+    }
+
+    public long getTicks() {
+        return ticks.sum();
+    }
+
+    public long getGenerationNanos() {
+        return generationNanos.sum();
+    }
+
+    public long getCopyNanos() {
+        return copyNanos.sum();
+    }
+
+    public long getFanOutNanos() {
+        return fanOutNanos.sum();
+    }
+
+    public long getQueueDepth() {
+        return queueDepth.sum();
+    }
+
+    public long getOverruns() {
+        return overruns.sum();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+}
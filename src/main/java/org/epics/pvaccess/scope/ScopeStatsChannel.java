@@ -0,0 +1,648 @@
+package org.epics.pvaccess.scope;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.epics.nt.NTTable;
+import org.epics.pvaccess.PVFactory;
+import org.epics.pvaccess.client.AccessRights;
+import org.epics.pvaccess.client.Channel;
+import org.epics.pvaccess.client.ChannelArray;
+import org.epics.pvaccess.client.ChannelArrayRequester;
+import org.epics.pvaccess.client.ChannelGet;
+import org.epics.pvaccess.client.ChannelGetRequester;
+import org.epics.pvaccess.client.ChannelProcess;
+import org.epics.pvaccess.client.ChannelProcessRequester;
+import org.epics.pvaccess.client.ChannelProvider;
+import org.epics.pvaccess.client.ChannelPut;
+import org.epics.pvaccess.client.ChannelPutGet;
+import org.epics.pvaccess.client.ChannelPutGetRequester;
+import org.epics.pvaccess.client.ChannelPutRequester;
+import org.epics.pvaccess.client.ChannelRPC;
+import org.epics.pvaccess.client.ChannelRPCRequester;
+import org.epics.pvaccess.client.ChannelRequester;
+import org.epics.pvaccess.client.GetFieldRequester;
+import org.epics.pvaccess.client.Lockable;
+import org.epics.pvdata.factory.FieldFactory;
+import org.epics.pvdata.factory.PVDataFactory;
+import org.epics.pvdata.misc.BitSet;
+import org.epics.pvdata.monitor.Monitor;
+import org.epics.pvdata.monitor.MonitorElement;
+import org.epics.pvdata.monitor.MonitorRequester;
+import org.epics.pvdata.property.PVTimeStamp;
+import org.epics.pvdata.property.PVTimeStampFactory;
+import org.epics.pvdata.property.TimeStamp;
+import org.epics.pvdata.property.TimeStampFactory;
+import org.epics.pvdata.pv.Field;
+import org.epics.pvdata.pv.MessageType;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVIntArray;
+import org.epics.pvdata.pv.PVLongArray;
+import org.epics.pvdata.pv.PVStringArray;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.Status;
+import org.epics.pvdata.pv.Status.StatusType;
+import org.epics.pvdata.pv.StatusCreate;
+import org.epics.pvdata.pv.Structure;
+
+/**
+ * The reserved <code>scope:stats</code> channel, publishing the
+ * {@link ScopeStats} of every live structure and of the whole process.
+ * <p>
+ * The channel is an NTTable with one row per live structure, named by its
+ * key, and the global counters in its <code>global</code> field. It is
+ * updated every <code>scope.statsPeriodMillis</code> milliseconds (1000 by
+ * default) while at least one client is connected to it, and supports get and
+ * monitor requests.
+ */
+public class ScopeStatsChannel implements Lockable {
+
+    static final String CHANNEL_NAME = ScopeChannelProviderImpl.PROVIDER_NAME + ":stats";
+
+    private static final String NAME = "name";
+    private static final String TICKS = "ticks";
+    private static final String GENERATION_NANOS = "generationNanos";
+    private static final String COPY_NANOS = "copyNanos";
+    private static final String FAN_OUT_NANOS = "fanOutNanos";
+    private static final String SUBSCRIBERS = "subscribers";
+    private static final String QUEUE_DEPTH = "queueDepth";
+    private static final String OVERRUNS = "overruns";
+    private static final String DROPPED_FRAMES = "droppedFrames";
+    private static final String BYTES = "bytes";
+    private static final String CHANNELS = "channels";
+
+    // the counters in column order, the subscribers are the only int column
+    private static final String[] COUNTERS = { TICKS, GENERATION_NANOS, COPY_NANOS, FAN_OUT_NANOS, QUEUE_DEPTH,
+            OVERRUNS, DROPPED_FRAMES, BYTES };
+
+    private static final int DEFAULT_QUEUE_SIZE = 2;
+    private static final int MAX_QUEUE_SIZE = 100;
+
+    private static final StatusCreate statusCreate = PVFactory.getStatusCreate();
+    private static final Status okStatus = statusCreate.getStatusOK();
+    private static final Status destroyedStatus = statusCreate.createStatus(StatusType.ERROR, "channel destroyed", null);
+    private static final Status fieldDoesNotExistStatus = statusCreate.createStatus(StatusType.ERROR, "field does not exist", null);
+    private static final Status notSupportedStatus = statusCreate.createStatus(StatusType.ERROR,
+            CHANNEL_NAME + " only supports get and monitor", null);
+
+    static final Structure GLOBAL = FieldFactory.getFieldCreate().createStructure(
+            new String[] { CHANNELS, TICKS, GENERATION_NANOS, COPY_NANOS, FAN_OUT_NANOS, SUBSCRIBERS, QUEUE_DEPTH,
+                    OVERRUNS, DROPPED_FRAMES, BYTES },
+            new Field[] {
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvInt),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvLong),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvLong),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvLong),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvLong),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvInt),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvLong),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvLong),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvLong),
+                    FieldFactory.getFieldCreate().createScalar(ScalarType.pvLong) });
+
+    static final Structure STATS = NTTable.createBuilder()
+            .addColumn(NAME, ScalarType.pvString)
+            .addColumn(TICKS, ScalarType.pvLong)
+            .addColumn(GENERATION_NANOS, ScalarType.pvLong)
+            .addColumn(COPY_NANOS, ScalarType.pvLong)
+            .addColumn(FAN_OUT_NANOS, ScalarType.pvLong)
+            .addColumn(SUBSCRIBERS, ScalarType.pvInt)
+            .addColumn(QUEUE_DEPTH, ScalarType.pvLong)
+            .addColumn(OVERRUNS, ScalarType.pvLong)
+            .addColumn(DROPPED_FRAMES, ScalarType.pvLong)
+            .addColumn(BYTES, ScalarType.pvLong)
+            .addTimeStamp()
+            .add("global", GLOBAL)
+            .createStructure();
+
+    private final ChannelProvider provider;
+    private final Supplier<List<ScopePvStructure>> structures;
+    private final Lock lock = new ReentrantLock();
+    private final Set<StatsMonitor> monitors = ConcurrentHashMap.newKeySet();
+
+    // guarded by the lock
+    private final PVStructure pvStructure;
+    private final NTTable table;
+    private final PVStructure globalField;
+    private final PVTimeStamp timeStampField = PVTimeStampFactory.create();
+    private final TimeStamp timeStamp = TimeStampFactory.create();
+    private final BitSet changedBitSet;
+
+    // guarded by this
+    private int channelCount = 0;
+    private ScopeScheduler.Timeout publishTask;
+
+    /**
+     * @param provider
+     *            the provider of the channel
+     * @param structures
+     *            the live structures to publish the counters of
+     */
+    ScopeStatsChannel(ChannelProvider provider, Supplier<List<ScopePvStructure>> structures) {
+        this.provider = provider;
+        this.structures = structures;
+        this.pvStructure = PVDataFactory.getPVDataCreate().createPVStructure(STATS);
+        this.table = NTTable.wrap(pvStructure);
+        this.globalField = pvStructure.getStructureField("global");
+        timeStampField.attach(pvStructure.getStructureField("timeStamp"));
+
+        String[] labels = new String[] { NAME, TICKS, GENERATION_NANOS, COPY_NANOS, FAN_OUT_NANOS, SUBSCRIBERS,
+                QUEUE_DEPTH, OVERRUNS, DROPPED_FRAMES, BYTES };
+        table.getLabels().put(0, labels.length, labels, 0);
+
+        changedBitSet = new BitSet(pvStructure.getNumberFields());
+        changedBitSet.set(table.getValue().getFieldOffset());
+        changedBitSet.set(globalField.getFieldOffset());
+        changedBitSet.set(pvStructure.getStructureField("timeStamp").getFieldOffset());
+        publish();
+    }
+
+    /**
+     * @return a new client channel on the statistics, which are published
+     *         until its last channel is destroyed
+     */
+    Channel createChannel(ChannelRequester channelRequester) {
+        synchronized (this) {
+            if (channelCount++ == 0) {
+                long period = Long.getLong("scope.statsPeriodMillis", 1000L);
+                publishTask = ScopeScheduler.getInstance().scheduleAtFixedRate(CHANNEL_NAME, this::publish, 0,
+                        Math.max(1, period), TimeUnit.MILLISECONDS);
+            }
+        }
+        return new StatsChannel(channelRequester);
+    }
+
+    private synchronized void releaseChannel() {
+        if (--channelCount == 0) {
+            publishTask.cancel();
+            publishTask = null;
+        }
+    }
+
+    /**
+     * Stops the updates, whatever the number of connected clients.
+     */
+    synchronized void stop() {
+        if (publishTask != null) {
+            publishTask.cancel();
+            publishTask = null;
+        }
+    }
+
+    @Override
+    public void lock() {
+        lock.lock();
+    }
+
+    @Override
+    public void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Reads all the counters into the structure and updates the monitors.
+     */
+    void publish() {
+        List<ScopePvStructure> live = structures.get();
+        int rows = live.size();
+        String[] names = new String[rows];
+        int[] subscribers = new int[rows];
+        long[][] counters = new long[COUNTERS.length][rows];
+        int globalSubscribers = 0;
+        for (int row = 0; row < rows; row++) {
+            ScopePvStructure structure = live.get(row);
+            names[row] = structure.getName();
+            subscribers[row] = structure.getListenerCount();
+            globalSubscribers += subscribers[row];
+            readCounters(structure.getStats(), counters, row);
+        }
+        long[][] global = new long[COUNTERS.length][1];
+        readCounters(ScopeStats.getGlobal(), global, 0);
+
+        Instant now = Instant.now();
+        lock();
+        try {
+            PVStringArray nameColumn = table.getColumn(PVStringArray.class, NAME);
+            nameColumn.setLength(rows);
+            nameColumn.put(0, rows, names, 0);
+            PVIntArray subscriberColumn = table.getColumn(PVIntArray.class, SUBSCRIBERS);
+            subscriberColumn.setLength(rows);
+            subscriberColumn.put(0, rows, subscribers, 0);
+            globalField.getIntField(CHANNELS).put(rows);
+            globalField.getIntField(SUBSCRIBERS).put(globalSubscribers);
+            for (int i = 0; i < COUNTERS.length; i++) {
+                PVLongArray column = table.getColumn(PVLongArray.class, COUNTERS[i]);
+                column.setLength(rows);
+                column.put(0, rows, counters[i], 0);
+                globalField.getLongField(COUNTERS[i]).put(global[i][0]);
+            }
+            timeStamp.put(now.getEpochSecond(), now.getNano());
+            timeStampField.set(timeStamp);
+
+            for (StatsMonitor monitor : monitors)
+                monitor.update(changedBitSet);
+        } finally {
+            unlock();
+        }
+    }
+
+    private static void readCounters(ScopeStats stats, long[][] counters, int row) {
+        counters[0][row] = stats.getTicks();
+        counters[1][row] = stats.getGenerationNanos();
+        counters[2][row] = stats.getCopyNanos();
+        counters[3][row] = stats.getFanOutNanos();
+        counters[4][row] = stats.getQueueDepth();
+        counters[5][row] = stats.getOverruns();
+        counters[6][row] = stats.getDroppedFrames();
+        counters[7][row] = stats.getBytes();
+    }
+
+    class StatsChannel implements Channel {
+        private final ChannelRequester channelRequester;
+        private final AtomicBoolean destroyed = new AtomicBoolean(false);
+        private final Set<StatsMonitor> channelMonitors = ConcurrentHashMap.newKeySet();
+        private volatile ConnectionState connectionState = ConnectionState.NEVER_CONNECTED;
+
+        StatsChannel(ChannelRequester channelRequester) {
+            this.channelRequester = channelRequester;
+            setConnectionState(ConnectionState.CONNECTED);
+        }
+
+        private void setConnectionState(ConnectionState state) {
+            this.connectionState = state;
+            channelRequester.channelStateChange(this, state);
+        }
+
+        @Override
+        public String getRequesterName() {
+            return channelRequester.getRequesterName();
+        }
+
+        @Override
+        public void message(String message, MessageType messageType) {
+            System.err.println("[" + messageType + "] " + message);
+        }
+
+        @Override
+        public ChannelProvider getProvider() {
+            return provider;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "local";
+        }
+
+        @Override
+        public ConnectionState getConnectionState() {
+            return connectionState;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return getConnectionState() == ConnectionState.CONNECTED;
+        }
+
+        @Override
+        public void destroy() {
+            if (destroyed.getAndSet(true) == false) {
+                for (StatsMonitor monitor : channelMonitors)
+                    monitor.destroy();
+                releaseChannel();
+
+                setConnectionState(ConnectionState.DISCONNECTED);
+                setConnectionState(ConnectionState.DESTROYED);
+            }
+        }
+
+        @Override
+        public String getChannelName() {
+            return CHANNEL_NAME;
+        }
+
+        @Override
+        public ChannelRequester getChannelRequester() {
+            return channelRequester;
+        }
+
+        @Override
+        public void getField(GetFieldRequester requester, String subField) {
+            if (requester == null)
+                throw new IllegalArgumentException("requester");
+
+            if (destroyed.get()) {
+                requester.getDone(destroyedStatus, null);
+                return;
+            }
+
+            PVField pvField = (subField == null || subField.isEmpty()) ? pvStructure : pvStructure.getSubField(subField);
+            if (pvField != null)
+                requester.getDone(okStatus, pvField.getField());
+            else
+                requester.getDone(fieldDoesNotExistStatus, null);
+        }
+
+        @Override
+        public AccessRights getAccessRights(PVField pvField) {
+            return AccessRights.read;
+        }
+
+        @Override
+        public ChannelProcess createChannelProcess(ChannelProcessRequester channelProcessRequester,
+                PVStructure pvRequest) {
+            channelProcessRequester.channelProcessConnect(notSupportedStatus, null);
+            return null;
+        }
+
+        @Override
+        public ChannelGet createChannelGet(ChannelGetRequester channelGetRequester, PVStructure pvRequest) {
+            if (channelGetRequester == null)
+                throw new IllegalArgumentException("channelGetRequester");
+
+            if (pvRequest == null)
+                throw new IllegalArgumentException("pvRequest");
+
+            if (destroyed.get()) {
+                channelGetRequester.channelGetConnect(destroyedStatus, null, null);
+                return null;
+            }
+
+            return new StatsGet(this, channelGetRequester, pvRequest);
+        }
+
+        @Override
+        public ChannelPut createChannelPut(ChannelPutRequester channelPutRequester, PVStructure pvRequest) {
+            channelPutRequester.channelPutConnect(notSupportedStatus, null, null);
+            return null;
+        }
+
+        @Override
+        public ChannelPutGet createChannelPutGet(ChannelPutGetRequester channelPutGetRequester,
+                PVStructure pvRequest) {
+            channelPutGetRequester.channelPutGetConnect(notSupportedStatus, null, null, null);
+            return null;
+        }
+
+        @Override
+        public ChannelRPC createChannelRPC(ChannelRPCRequester channelRPCRequester, PVStructure pvRequest) {
+            channelRPCRequester.channelRPCConnect(notSupportedStatus, null);
+            return null;
+        }
+
+        @Override
+        public Monitor createMonitor(MonitorRequester monitorRequester, PVStructure pvRequest) {
+            if (monitorRequester == null)
+                throw new IllegalArgumentException("monitorRequester");
+
+            if (pvRequest == null)
+                throw new IllegalArgumentException("pvRequest");
+
+            if (destroyed.get()) {
+                monitorRequester.monitorConnect(destroyedStatus, null, null);
+                return null;
+            }
+
+            StatsMonitor monitor = new StatsMonitor(this, monitorRequester, pvRequest);
+            channelMonitors.add(monitor);
+            return monitor;
+        }
+
+        @Override
+        public ChannelArray createChannelArray(ChannelArrayRequester channelArrayRequester, PVStructure pvRequest) {
+            channelArrayRequester.channelArrayConnect(notSupportedStatus, null, null);
+            return null;
+        }
+    }
+
+    class StatsGet implements ChannelGet {
+        private final StatsChannel channel;
+        private final ChannelGetRequester channelGetRequester;
+        private final Mapper mapper;
+        private final BitSet bitSet;
+        private final AtomicBoolean destroyed = new AtomicBoolean(false);
+        private final Lock requestLock = new ReentrantLock();
+        private volatile boolean lastRequest = false;
+
+        StatsGet(StatsChannel channel, ChannelGetRequester channelGetRequester, PVStructure pvRequest) {
+            this.channel = channel;
+            this.channelGetRequester = channelGetRequester;
+            this.mapper = new Mapper(pvStructure, pvRequest);
+            this.bitSet = new BitSet(mapper.getCopyStructure().getNumberFields());
+            bitSet.set(0);
+            channelGetRequester.channelGetConnect(okStatus, this, mapper.getCopyStructure().getStructure());
+        }
+
+        @Override
+        public void get() {
+            if (destroyed.get()) {
+                channelGetRequester.getDone(destroyedStatus, this, null, null);
+                return;
+            }
+
+            lock();
+            try {
+                ScopeStatsChannel.this.lock();
+                try {
+                    mapper.updateCopyStructure(null);
+                } finally {
+                    ScopeStatsChannel.this.unlock();
+                }
+            } finally {
+                unlock();
+            }
+            channelGetRequester.getDone(okStatus, this, mapper.getCopyStructure(), bitSet);
+
+            if (lastRequest)
+                destroy();
+        }
+
+        @Override
+        public Channel getChannel() {
+            return channel;
+        }
+
+        @Override
+        public void cancel() {
+            // noop, not supported
+        }
+
+        @Override
+        public void lastRequest() {
+            lastRequest = true;
+        }
+
+        @Override
+        public void lock() {
+            requestLock.lock();
+        }
+
+        @Override
+        public void unlock() {
+            requestLock.unlock();
+        }
+
+        @Override
+        public void destroy() {
+            destroyed.set(true);
+        }
+    }
+
+    /**
+     * A monitor of the statistics, with the queue and overrun handling of the
+     * scope monitors.
+     */
+    class StatsMonitor implements Monitor {
+        private final StatsChannel channel;
+        private final MonitorRequester monitorRequester;
+        private final Mapper mapper;
+        private final AtomicBoolean started = new AtomicBoolean(false);
+        private final AtomicBoolean destroyed = new AtomicBoolean(false);
+        private final ScopeDispatcher.Delivery delivery;
+        private final BitSet allChanged = new BitSet(1);
+
+        // guarded by this
+        private final BitSet overrunChanged;
+        private final ArrayDeque<StatsElement> freeElements;
+        private final ArrayDeque<StatsElement> usedElements;
+        private boolean pending = false;
+
+        StatsMonitor(StatsChannel channel, MonitorRequester monitorRequester, PVStructure pvRequest) {
+            this.channel = channel;
+            this.monitorRequester = monitorRequester;
+            this.mapper = new Mapper(pvStructure, pvRequest);
+            allChanged.set(0);
+
+            int queueSize = ScopeRequestOptions.getRecordOption(pvRequest, "queueSize", DEFAULT_QUEUE_SIZE);
+            queueSize = Math.max(1, Math.min(queueSize, MAX_QUEUE_SIZE));
+            freeElements = new ArrayDeque<StatsElement>(queueSize);
+            usedElements = new ArrayDeque<StatsElement>(queueSize);
+            int numberFields = mapper.getCopyStructure().getNumberFields();
+            overrunChanged = new BitSet(numberFields);
+            for (int i = 0; i < queueSize; i++)
+                freeElements.add(new StatsElement(mapper.createCopyStructure(), numberFields));
+            delivery = ScopeDispatcher.getInstance().createDelivery(this::deliver);
+
+            monitorRequester.monitorConnect(okStatus, this, mapper.getCopyStructure().getStructure());
+        }
+
+        /**
+         * Copies the statistics to a free element, or into the newest element
+         * not yet polled when the queue is full. Must be called holding the
+         * lock of the statistics.
+         */
+        void update(BitSet originBitSet) {
+            synchronized (this) {
+                StatsElement element = freeElements.pollFirst();
+                if (element != null) {
+                    mapper.updateCopyStructureOriginBitSet(element.pvStructure, originBitSet, element.changedBitSet);
+                    element.overrunBitSet.clear();
+                    usedElements.addLast(element);
+                    pending = true;
+                } else {
+                    element = usedElements.peekLast();
+                    if (element == null)
+                        return;
+                    mapper.updateCopyStructureOriginBitSet(element.pvStructure, originBitSet, overrunChanged);
+                    element.overrunBitSet.or_and(element.changedBitSet, overrunChanged);
+                    element.changedBitSet.or(overrunChanged);
+                    return;
+                }
+            }
+            delivery.trigger();
+        }
+
+        private void deliver() {
+            synchronized (this) {
+                if (!pending || !started.get())
+                    return;
+                pending = false;
+            }
+            monitorRequester.monitorEvent(this);
+        }
+
+        @Override
+        public Status start() {
+            if (started.getAndSet(true))
+                return okStatus;
+
+            // the current statistics first
+            ScopeStatsChannel.this.lock();
+            try {
+                update(allChanged);
+                monitors.add(this);
+            } finally {
+                ScopeStatsChannel.this.unlock();
+            }
+            return okStatus;
+        }
+
+        @Override
+        public Status stop() {
+            if (!started.getAndSet(false))
+                return okStatus;
+
+            monitors.remove(this);
+            synchronized (this) {
+                StatsElement element;
+                while ((element = usedElements.pollFirst()) != null)
+                    freeElements.addLast(element);
+                pending = false;
+            }
+            return okStatus;
+        }
+
+        @Override
+        public synchronized MonitorElement poll() {
+            return usedElements.pollFirst();
+        }
+
+        @Override
+        public synchronized void release(MonitorElement monitorElement) {
+            freeElements.addLast((StatsElement) monitorElement);
+        }
+
+        @Override
+        public void destroy() {
+            if (destroyed.getAndSet(true))
+                return;
+            stop();
+            channel.channelMonitors.remove(this);
+        }
+    }
+
+    static class StatsElement implements MonitorElement {
+        private final PVStructure pvStructure;
+        private final BitSet changedBitSet;
+        private final BitSet overrunBitSet;
+
+        StatsElement(PVStructure pvStructure, int numberFields) {
+            this.pvStructure = pvStructure;
+            this.changedBitSet = new BitSet(numberFields);
+            this.overrunBitSet = new BitSet(numberFields);
+        }
+
+        @Override
+        public PVStructure getPVStructure() {
+            return pvStructure;
+        }
+
+        @Override
+        public BitSet getChangedBitSet() {
+            return changedBitSet;
+        }
+
+        @Override
+        public BitSet getOverrunBitSet() {
+            return overrunBitSet;
+        }
+    }
+}
@@ -1,13 +1,68 @@
 package org.epics.pvaccess.scope;
 
-import java.time.Duration;
 import java.time.Instant;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class SignalGenerator {
 
     public interface Signal {
-        double[] nextListDouble(Instant instant);
+        /**
+         * @return the number of samples in each frame of this signal
+         */
+        int getSampleCount();
+
+        /**
+         * Writes the frame of this signal at the given instant in the first
+         * {@link #getSampleCount()} elements of the buffer, without allocating.
+         *
+         * @param instant
+         *            the instant of the frame
+         * @param buffer
+         *            the buffer to fill, at least {@link #getSampleCount()} long
+         */
+        void fill(Instant instant, double[] buffer);
+
+        /**
+         * @param instant
+         *            the instant of the frame
+         * @return a new array holding the frame of this signal at the given instant
+         */
+        default double[] nextListDouble(Instant instant) {
+            double[] newArray = new double[getSampleCount()];
+            fill(instant, newArray);
+            return newArray;
+        }
+    }
+
+    /**
+     * Copies the elements <code>from</code> to <code>to</code> of the source
+     * rotated left by offset, <code>target[i] = source[(offset + i) %
+     * source.length]</code>, in at most two bulk copies.
+     */
+    static void rotate(double[] source, int offset, double[] target, int from, int to) {
+        int start = (int) ((offset + (long) from) % source.length);
+        int first = Math.min(to - from, source.length - start);
+        System.arraycopy(source, start, target, from, first);
+        System.arraycopy(source, 0, target, from + first, to - from - first);
+    }
+
+    /**
+     * Fills the elements <code>length</code> to <code>to</code> of the buffer
+     * by repeating its first <code>length</code> elements, doubling the copied
+     * block at each bulk copy.
+     */
+    static void replicate(double[] buffer, int length, int to) {
+        for (int filled = length; filled < to; filled *= 2) {
+            System.arraycopy(buffer, 0, buffer, filled, Math.min(filled, to - filled));
+        }
+    }
+
+    /**
+     * @return the time elapsed between the two instants in seconds, computed
+     *         without allocating a {@link java.time.Duration}
+     */
+    static double secondsBetween(Instant start, Instant end) {
+        return (end.getEpochSecond() - start.getEpochSecond()) + (end.getNano() - start.getNano()) / 1000000000.0;
     }
 
     /**
@@ -28,6 +83,15 @@ public class SignalGenerator {
         return new SawtoothWaveform(periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds);
     }
 
+    /**
+     * As {@link #generateSawtoothWaveform(Double, Double, Double, Double)}, evaluated
+     * with the given kernel.
+     */
+    public static Signal generateSawtoothWaveform(Double periodInSeconds, Double wavelengthInSamples, Double nSamples,
+            Double updateRateInSeconds, WaveformKernel kernel) {
+        return new SawtoothWaveform(periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds, kernel);
+    }
+
     /**
      * Creates sine wave of nSamples samples, with given period and given wavelength
      * of given number of samples, updating at given rate.
@@ -45,6 +109,15 @@ public class SignalGenerator {
         return new SineWaveform(periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds);
     }
 
+    /**
+     * As {@link #generateSineWaveform(Double, Double, Double, Double)}, evaluated
+     * with the given kernel.
+     */
+    public static Signal generateSineWaveform(Double periodInSeconds, Double wavelengthInSamples, Double nSamples,
+            Double updateRateInSeconds, WaveformKernel kernel) {
+        return new SineWaveform(periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds, kernel);
+    }
+
     /**
      * Creates a gaussian wave of given number of samples, with given period and
      * standard, updating at the given rate
@@ -80,7 +153,50 @@ public class SignalGenerator {
             Double updateRateInSeconds) {
         return new SquareWaveform(periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds);
     }
+
+    /**
+     * As {@link #generateSquareWaveform(Double, Double, Double, Double)}, evaluated
+     * with the given kernel.
+     */
+    public static Signal generateSquareWaveform(Double periodInSeconds, Double wavelengthInSamples, Double nSamples,
+            Double updateRateInSeconds, WaveformKernel kernel) {
+        return new SquareWaveform(periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds, kernel);
+    }
     
+    /**
+     * Creates a sine, square or sawtooth wave generated from a table of one
+     * period, see {@link PeriodTableWaveform}. Falls back to the
+     * {@link WaveformKernels#getDefault() default kernel} if the wavelength is
+     * not a whole number of samples or is longer than the frame.
+     *
+     * @param shape
+     *            <code>sine</code>, <code>square</code> or <code>sawtooth</code>
+     * @param periodInSeconds
+     *            the period measured in seconds
+     * @param wavelengthInSamples
+     *            the wavelength measured in samples
+     * @param nSamples
+     *            the number of samples
+     * @param updateRateInSeconds
+     *            the update rate in seconds
+     */
+    public static Signal generatePeriodTableWaveform(String shape, Double periodInSeconds,
+            Double wavelengthInSamples, Double nSamples, Double updateRateInSeconds) {
+        if (PeriodTableWaveform.supports(wavelengthInSamples, nSamples))
+            return new PeriodTableWaveform(shape, periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds);
+
+        WaveformKernel kernel = WaveformKernels.getDefault();
+        switch (shape) {
+        case ScopeChannelConfig.SINE:
+            return generateSineWaveform(periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds, kernel);
+        case ScopeChannelConfig.SQUARE:
+            return generateSquareWaveform(periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds, kernel);
+        default:
+            return generateSawtoothWaveform(periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds,
+                    kernel);
+        }
+    }
+
     /**
      * Creates a noise waveform signal with a gaussian distribution, updating at the
      * rate specified.
@@ -97,8 +213,32 @@ public class SignalGenerator {
     public static Signal generateNoiseWaveform(Double min, Double max, Double nSamples, Double interval) {
         return new NoiseWaveform(min, max, nSamples, interval);
     }
+
+    /**
+     * Creates a noise waveform signal of the given distribution, updating at
+     * the rate specified.
+     *
+     * @param min
+     *            the minimum value
+     * @param max
+     *            the maximum value
+     * @param nSamples
+     *            number of elements in the waveform
+     * @param interval
+     *            time between samples in seconds
+     * @param distribution
+     *            <code>uniform</code>, <code>gaussian</code>, <code>pink</code>
+     *            or <code>brown</code>
+     * @param seed
+     *            the seed of the noise, or <code>null</code> for a random one
+     */
+    public static Signal generateNoiseWaveform(Double min, Double max, Double nSamples, Double interval,
+            String distribution, Long seed) {
+        return new NoiseWaveform(min, max, nSamples, interval, distribution, seed);
+    }
     static class SawtoothWaveform implements Signal {
         private Instant initialReference = Instant.now();
+        private final WaveformKernel kernel;
         private double omega;
         private double k;
         private int nSamples;
@@ -118,7 +258,13 @@ public class SignalGenerator {
          */
         public SawtoothWaveform(Double periodInSeconds, Double wavelengthInSamples, Double nSamples,
                 Double updateRateInSeconds) {
+            this(periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds, WaveformKernels.getDefault());
+        }
 
+        public SawtoothWaveform(Double periodInSeconds, Double wavelengthInSamples, Double nSamples,
+                Double updateRateInSeconds, WaveformKernel kernel) {
+
+            this.kernel = kernel;
             this.omega = 2 * Math.PI / periodInSeconds;
             this.k = 2 * Math.PI / wavelengthInSamples;
             this.nSamples = nSamples.intValue();
@@ -128,24 +274,28 @@ public class SignalGenerator {
         }
 
         @Override
-        public double[] nextListDouble(Instant instant) {
+        public int getSampleCount() {
+            return nSamples;
+        }
+
+        @Override
+        public void fill(Instant instant, double[] buffer) {
 
-            Duration difference = Duration.between(initialReference, instant);
-            double time = difference.getSeconds() + difference.getNano() / 1000000000.0;
+            double time = secondsBetween(initialReference, instant);
 
-            double[] newArray = new double[nSamples];
-            for (int i = 0; i < newArray.length; i++) {
-                double x = (omega * time + k * i) / (2 * Math.PI);
-                double normalizedPositionInPeriod = x - (double) (long) x;
-                newArray[i] = -1.0 + 2 * normalizedPositionInPeriod;
+            double phase = omega * time;
+            if (ScopeParallel.isParallel(nSamples)) {
+                ScopeParallel.forRange(nSamples, (from, to) -> kernel.sawtooth(phase, k, buffer, from, to));
+            } else {
+                kernel.sawtooth(phase, k, buffer, 0, nSamples);
             }
-            return newArray;
         }
     }
 
     static class GaussianWaveform implements Signal {
         private Instant initialReference = Instant.now();
         private final double omega;
+        private final int nSamples;
         private double[] buffer;
 
         /**
@@ -163,9 +313,9 @@ public class SignalGenerator {
          */
         public GaussianWaveform(Double periodInSeconds, Double stdDev, Double nSamples, Double updateRateInSeconds) {
 
-            int size = nSamples.intValue();
+            this.nSamples = nSamples.intValue();
             this.omega = 2 * Math.PI / periodInSeconds;
-            buffer = new double[size];
+            buffer = new double[this.nSamples];
             populateGaussian(buffer, stdDev);
         }
 
@@ -191,10 +341,14 @@ public class SignalGenerator {
         }
 
         @Override
-        public double[] nextListDouble(Instant instant) {
+        public int getSampleCount() {
+            return nSamples;
+        }
+
+        @Override
+        public void fill(Instant instant, double[] newArray) {
 
-            Duration difference = Duration.between(initialReference, instant);
-            double time = difference.getSeconds() + difference.getNano() / 1000000000.0;
+            double time = secondsBetween(initialReference, instant);
 
             double x = time * omega / (2 * Math.PI);
             double normalizedX = x - (double) (long) x;
@@ -202,21 +356,22 @@ public class SignalGenerator {
             if (offset == buffer.length) {
                 offset = 0;
             }
-            int localCounter = offset;
-            double[] newArray = new double[buffer.length];
-            for (int i = 0; i < newArray.length; i++) {
-                newArray[i] = buffer[localCounter];
-                localCounter++;
-                if (localCounter >= buffer.length) {
-                    localCounter -= buffer.length;
-                }
+            if (ScopeParallel.isParallel(nSamples)) {
+                int start = offset;
+                ScopeParallel.forRange(nSamples, (from, to) -> copy(start, newArray, from, to));
+            } else {
+                copy(offset, newArray, 0, nSamples);
             }
-            return newArray;
+        }
+
+        private void copy(int offset, double[] newArray, int from, int to) {
+            rotate(buffer, offset, newArray, from, to);
         }
     }
 
     static class SineWaveform implements Signal {
         private Instant initialReference = Instant.now();
+        private final WaveformKernel kernel;
         private final double omega;
         private final double k;
         private int nSamples;
@@ -231,6 +386,12 @@ public class SignalGenerator {
          * @param updateRateInSeconds the update rate in seconds
          */
         public SineWaveform(Double periodInSeconds, Double wavelengthInSamples, Double nSamples, Double updateRateInSeconds) {
+            this(periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds, WaveformKernels.getDefault());
+        }
+
+        public SineWaveform(Double periodInSeconds, Double wavelengthInSamples, Double nSamples, Double updateRateInSeconds,
+                WaveformKernel kernel) {
+            this.kernel = kernel;
             this.omega = 2 * Math.PI / periodInSeconds;
             this.k = 2 * Math.PI / wavelengthInSamples;
             this.nSamples = nSamples.intValue();
@@ -240,21 +401,27 @@ public class SignalGenerator {
         }
 
         @Override
-        public double[] nextListDouble(Instant instant) {
+        public int getSampleCount() {
+            return nSamples;
+        }
 
-            Duration difference = Duration.between(initialReference, instant);
-            double time = difference.getSeconds() + difference.getNano() / 1000000000.0;
+        @Override
+        public void fill(Instant instant, double[] buffer) {
 
-            double[] newArray = new double[nSamples];
-            for (int i = 0; i < newArray.length; i++) {
-                newArray[i] = Math.sin(omega * time + k * i);
+            double time = secondsBetween(initialReference, instant);
+
+            double phase = omega * time;
+            if (ScopeParallel.isParallel(nSamples)) {
+                ScopeParallel.forRange(nSamples, (from, to) -> kernel.sine(phase, k, buffer, from, to));
+            } else {
+                kernel.sine(phase, k, buffer, 0, nSamples);
             }
-            return newArray;
         }
     }
 
     static class SquareWaveform implements Signal {
         private Instant initialReference = Instant.now();
+        private final WaveformKernel kernel;
         private final double omega;
         private final double k;
         private int nSamples;
@@ -269,6 +436,12 @@ public class SignalGenerator {
          * @param updateRateInSeconds the update rate in seconds
          */
         public SquareWaveform(Double periodInSeconds, Double wavelengthInSamples, Double nSamples, Double updateRateInSeconds) {
+            this(periodInSeconds, wavelengthInSamples, nSamples, updateRateInSeconds, WaveformKernels.getDefault());
+        }
+
+        public SquareWaveform(Double periodInSeconds, Double wavelengthInSamples, Double nSamples, Double updateRateInSeconds,
+                WaveformKernel kernel) {
+            this.kernel = kernel;
             this.omega = 2 * Math.PI / periodInSeconds;
             this.k = 2 * Math.PI / wavelengthInSamples;
             this.nSamples = nSamples.intValue();
@@ -278,36 +451,61 @@ public class SignalGenerator {
         }
 
         @Override
-        public double[] nextListDouble(Instant instant) {
-
-            Duration difference = Duration.between(initialReference, instant);
-            double time = difference.getSeconds() + difference.getNano() / 1000000000.0;
-
-            double[] newArray = new double[nSamples];
-            for (int i = 0; i < newArray.length; i++) {
-                double x = (omega * time + k * i) / (2 * Math.PI);
-                double normalizedPositionInPeriod = x - (double) (long) x;
-                if (normalizedPositionInPeriod < 0.5) {
-                    newArray[i] = 1.0;
-                } else if (normalizedPositionInPeriod < 1.0) {
-                    newArray[i] = -1.0;
-                } else {
-                    newArray[i] = 1.0;
-                }
+        public int getSampleCount() {
+            return nSamples;
+        }
+
+        @Override
+        public void fill(Instant instant, double[] buffer) {
+
+            double time = secondsBetween(initialReference, instant);
+
+            double phase = omega * time;
+            if (ScopeParallel.isParallel(nSamples)) {
+                ScopeParallel.forRange(nSamples, (from, to) -> kernel.square(phase, k, buffer, from, to));
+            } else {
+                kernel.square(phase, k, buffer, 0, nSamples);
             }
-            return newArray;
         }
     }
 
+    /**
+     * Noise drawn from a {@link ScopeRandom}, uniform between min and max, or
+     * gaussian, pink (1/f) or brown (1/f^2) centered between min and max with
+     * a standard deviation of half the range.
+     * <p>
+     * Each frame draws its own seed, and its white samples are drawn in blocks
+     * of {@link #BLOCK} seeded from it, so that very large frames can be
+     * filled in parallel with the same samples. The pink and brown noises
+     * filter the white gaussian samples in order, their filters running on
+     * from one frame to the next. With a fixed seed the channel produces the
+     * same frames on every run.
+     */
     static class NoiseWaveform implements Signal {
-        private Instant initialReference = Instant.now();
-        private Random rand = new Random();
-        private int nSamples;
-        private Double range;
-        private Double min;
+        static final String UNIFORM = "uniform";
+        static final String GAUSSIAN = "gaussian";
+        static final String PINK = "pink";
+        static final String BROWN = "brown";
+
+        static final int BLOCK = 4096;
+
+        // the filters scaled to a unit standard deviation for a unit white
+        // noise, the inverse of the norm of their impulse responses
+        private static final double PINK_GAIN = 1 / 3.0525275;
+        private static final double BROWN_GAIN = Math.sqrt(0.0404 / 0.0004);
+
+        private final ScopeRandom frames;
+        // the blocks of the frames filled by the event loop alone
+        private final ScopeRandom blocks = new ScopeRandom(0);
+        private final String distribution;
+        private final int nSamples;
+        private final double range;
+        private final double min;
+        private double b0, b1, b2, b3, b4, b5, b6;
+        private double brown;
 
         /**
-         * simulate a waveform containing a uniformly distributed random data.
+         * Simulates a waveform of gaussian noise, with a random seed.
          *
          * @param min
          *            the minimum value
@@ -319,25 +517,274 @@ public class SignalGenerator {
          *            time between samples in seconds
          */
         public NoiseWaveform(Double min, Double max, Double nSamples, Double interval) {
+            this(min, max, nSamples, interval, GAUSSIAN, null);
+        }
+
+        /**
+         * Simulates a waveform of noise of the given distribution.
+         *
+         * @param min
+         *            the minimum value
+         * @param max
+         *            the maximum value
+         * @param nSamples
+         *            number of elements in the waveform
+         * @param interval
+         *            time between samples in seconds
+         * @param distribution
+         *            <code>uniform</code>, <code>gaussian</code>,
+         *            <code>pink</code> or <code>brown</code>
+         * @param seed
+         *            the seed of the noise, or <code>null</code> for a random
+         *            one
+         */
+        public NoiseWaveform(Double min, Double max, Double nSamples, Double interval, String distribution,
+                Long seed) {
+            if (!isDistribution(distribution)) {
+                throw new IllegalArgumentException("Unknown noise distribution: " + distribution);
+            }
             this.min = min;
             this.range = max - min;
             this.nSamples = nSamples.intValue();
             if (this.nSamples <= 0) {
                 throw new IllegalArgumentException("Number of sample must be a positive integer.");
             }
+            this.distribution = distribution;
+            this.frames = new ScopeRandom((seed != null) ? seed : ThreadLocalRandom.current().nextLong());
+        }
+
+        static boolean isDistribution(String distribution) {
+            return distribution.equals(UNIFORM) || distribution.equals(GAUSSIAN) || distribution.equals(PINK)
+                    || distribution.equals(BROWN);
+        }
+
+        @Override
+        public int getSampleCount() {
+            return nSamples;
         }
 
         @Override
-        public double[] nextListDouble(Instant instant) {
-
-            Duration difference = Duration.between(initialReference, instant);
-            double time = difference.getSeconds() + difference.getNano() / 1000000000.0;
-            double[] newArray = new double[nSamples];
-            
-            for (int i = 0; i < newArray.length; i++) {
-                newArray[i] = (rand.nextGaussian() *range/2) + (min + range/2);
+        public void fill(Instant instant, double[] buffer) {
+            long frameSeed = frames.nextLong();
+            boolean uniform = distribution.equals(UNIFORM);
+            boolean filtered = distribution.equals(PINK) || distribution.equals(BROWN);
+            // the white noise already scaled, unless filtered
+            double scale = filtered ? 1.0 : uniform ? range : range / 2;
+            double offset = filtered ? 0.0 : uniform ? min : min + range / 2;
+
+            if (ScopeParallel.isParallel(nSamples)) {
+                ScopeParallel.forRange(nSamples, BLOCK,
+                        (from, to) -> white(new ScopeRandom(0), frameSeed, uniform, scale, offset, buffer, from, to));
+            } else {
+                white(blocks, frameSeed, uniform, scale, offset, buffer, 0, nSamples);
             }
-            return newArray;
+
+            if (distribution.equals(PINK)) {
+                pink(buffer);
+            } else if (distribution.equals(BROWN)) {
+                brown(buffer);
+            }
+        }
+
+        /**
+         * Fills the samples <code>from</code>, a multiple of {@link #BLOCK}, to
+         * <code>to</code> of the frame with white noise.
+         */
+        private static void white(ScopeRandom random, long frameSeed, boolean uniform, double scale, double offset,
+                double[] buffer, int from, int to) {
+            for (int start = from; start < to; start += BLOCK) {
+                int end = Math.min(to, start + BLOCK);
+                random.setSeed(frameSeed + start / BLOCK);
+                if (uniform) {
+                    random.fillUniform(buffer, start, end);
+                } else {
+                    random.fillGaussian(buffer, start, end);
+                }
+                if (scale != 1.0 || offset != 0.0) {
+                    for (int i = start; i < end; i++) {
+                        buffer[i] = buffer[i] * scale + offset;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Paul Kellet's refined filter of white noise into pink noise.
+         */
+        private void pink(double[] buffer) {
+            double scale = PINK_GAIN * range / 2;
+            double offset = min + range / 2;
+            for (int i = 0; i < nSamples; i++) {
+                double white = buffer[i];
+                b0 = 0.99886 * b0 + white * 0.0555179;
+                b1 = 0.99332 * b1 + white * 0.0750759;
+                b2 = 0.96900 * b2 + white * 0.1538520;
+                b3 = 0.86650 * b3 + white * 0.3104856;
+                b4 = 0.55000 * b4 + white * 0.5329522;
+                b5 = -0.7616 * b5 - white * 0.0168980;
+                double pink = b0 + b1 + b2 + b3 + b4 + b5 + b6 + white * 0.5362;
+                b6 = white * 0.115926;
+                buffer[i] = pink * scale + offset;
+            }
+        }
+
+        /**
+         * A leaky integration of white noise into brown noise, which does not
+         * drift away.
+         */
+        private void brown(double[] buffer) {
+            double scale = BROWN_GAIN * range / 2;
+            double offset = min + range / 2;
+            for (int i = 0; i < nSamples; i++) {
+                brown = (brown + 0.02 * buffer[i]) / 1.02;
+                buffer[i] = brown * scale + offset;
+            }
+        }
+    }
+
+    /**
+     * A sine, square or sawtooth wave whose wavelength is a whole number of
+     * samples, so that every frame is one period of samples repeated.
+     * <p>
+     * The period is tabulated once. A frame starts at the sample of the table
+     * where the phase of the frame falls, plus a fraction of a sample: its
+     * first period is read from the table in two segments, rotated, then
+     * repeated with bulk copies doubling in size. The fraction of a sample is
+     * applied exactly: the sine is rotated by the angle of the fraction with a
+     * second, cosine table, the sawtooth is offset by the slope times the
+     * fraction and the square, whose edges fall on whole or half samples,
+     * reads a second table sampled half a sample later when the fraction is
+     * at least one half. The samples match those of the kernels within the
+     * rounding of the phase. The period is at most one frame long, so the two
+     * tables never hold more than twice the samples of a frame.
+     */
+    static class PeriodTableWaveform implements Signal {
+
+        private Instant initialReference = Instant.now();
+        private final String shape;
+        private final double omega;
+        private final double k;
+        private final int nSamples;
+        private final int period;
+        private final double[] table;
+        // the cosines for the sine, the half samples for the square
+        private final double[] quadrature;
+
+        static boolean supports(double wavelengthInSamples, double nSamples) {
+            return wavelengthInSamples >= 1 && wavelengthInSamples <= nSamples
+                    && wavelengthInSamples == Math.rint(wavelengthInSamples);
+        }
+
+        /**
+         * @param shape
+         *            <code>sine</code>, <code>square</code> or
+         *            <code>sawtooth</code>
+         * @param periodInSeconds
+         *            the period measured in seconds
+         * @param wavelengthInSamples
+         *            the wavelength measured in samples, a whole number no
+         *            larger than the number of samples
+         * @param nSamples
+         *            the number of samples
+         * @param updateRateInSeconds
+         *            the update rate in seconds
+         */
+        public PeriodTableWaveform(String shape, Double periodInSeconds, Double wavelengthInSamples, Double nSamples,
+                Double updateRateInSeconds) {
+            if (!supports(wavelengthInSamples, nSamples)) {
+                throw new IllegalArgumentException(
+                        "The wavelength must be a whole number of samples no larger than the number of samples.");
+            }
+            this.shape = shape;
+            this.omega = 2 * Math.PI / periodInSeconds;
+            this.k = 2 * Math.PI / wavelengthInSamples;
+            this.nSamples = nSamples.intValue();
+            if (this.nSamples <= 0) {
+                throw new IllegalArgumentException("Number of sample must be a positive integer.");
+            }
+            this.period = wavelengthInSamples.intValue();
+
+            WaveformKernel kernel = WaveformKernels.SCALAR;
+            table = new double[period];
+            switch (shape) {
+            case ScopeChannelConfig.SINE:
+                kernel.sine(0, k, table, 0, period);
+                quadrature = new double[period];
+                for (int i = 0; i < period; i++) {
+                    quadrature[i] = Math.cos(k * i);
+                }
+                break;
+            case ScopeChannelConfig.SQUARE:
+                kernel.square(0, k, table, 0, period);
+                quadrature = new double[period];
+                kernel.square(k / 2, k, quadrature, 0, period);
+                break;
+            case ScopeChannelConfig.SAWTOOTH:
+                kernel.sawtooth(0, k, table, 0, period);
+                quadrature = null;
+                break;
+            default:
+                throw new IllegalArgumentException("Not a periodic signal: " + shape);
+            }
+        }
+
+        @Override
+        public int getSampleCount() {
+            return nSamples;
+        }
+
+        @Override
+        public void fill(Instant instant, double[] buffer) {
+
+            double time = secondsBetween(initialReference, instant);
+
+            fill(omega * time, buffer);
+        }
+
+        /**
+         * Fills the frame starting at the given phase, as the kernels do for
+         * <code>phase + k * i</code>.
+         */
+        void fill(double phase, double[] buffer) {
+            double shift = phase / k;
+            shift -= period * Math.floor(shift / period);
+            int offset = (int) shift;
+            double fraction = shift - offset;
+            if (offset >= period) {
+                offset = 0;
+                fraction = 0;
+            }
+
+            int length = Math.min(period, nSamples);
+            int first = Math.min(length, period - offset);
+            switch (shape) {
+            case ScopeChannelConfig.SINE:
+                if (fraction == 0) {
+                    rotate(table, offset, buffer, 0, length);
+                } else {
+                    double cos = Math.cos(k * fraction);
+                    double sin = Math.sin(k * fraction);
+                    for (int i = 0; i < first; i++) {
+                        buffer[i] = table[offset + i] * cos + quadrature[offset + i] * sin;
+                    }
+                    for (int i = first; i < length; i++) {
+                        buffer[i] = table[i - first] * cos + quadrature[i - first] * sin;
+                    }
+                }
+                break;
+            case ScopeChannelConfig.SQUARE:
+                rotate((fraction < 0.5) ? table : quadrature, offset, buffer, 0, length);
+                break;
+            default:
+                double slope = 2 * fraction / period;
+                for (int i = 0; i < first; i++) {
+                    buffer[i] = table[offset + i] + slope;
+                }
+                for (int i = first; i < length; i++) {
+                    buffer[i] = table[i - first] + slope;
+                }
+            }
+            replicate(buffer, length, nSamples);
         }
     }
 }
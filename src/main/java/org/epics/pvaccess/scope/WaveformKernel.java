@@ -0,0 +1,38 @@
+package org.epics.pvaccess.scope;
+
+/**
+ * The inner loops of the periodic waveforms. Each method fills the samples
+ * <code>from</code> (inclusive) to <code>to</code> (exclusive) of the buffer
+ * for the phase <code>omega * time</code> of the frame and the phase step
+ * <code>k</code> between two samples.
+ * <p>
+ * All the implementations compute the phase of sample <code>i</code> as
+ * <code>phase + k * i</code>, so the sawtooth and square waves are bit for bit
+ * identical across implementations and the sine waves differ by at most 2
+ * ulps, the accuracy of {@link Math#sin(double)} plus that of the kernel.
+ *
+ * @see WaveformKernels
+ */
+public interface WaveformKernel {
+
+    /**
+     * @return the name of the kernel, as given to the <code>kernel</code>
+     *         channel parameter
+     */
+    String getName();
+
+    /**
+     * <code>buffer[i] = sin(phase + k * i)</code>
+     */
+    void sine(double phase, double k, double[] buffer, int from, int to);
+
+    /**
+     * <code>buffer[i] = -1 + 2 * frac((phase + k * i) / 2pi)</code>
+     */
+    void sawtooth(double phase, double k, double[] buffer, int from, int to);
+
+    /**
+     * <code>buffer[i] = frac((phase + k * i) / 2pi) &lt; 0.5 ? 1 : -1</code>
+     */
+    void square(double phase, double k, double[] buffer, int from, int to);
+}
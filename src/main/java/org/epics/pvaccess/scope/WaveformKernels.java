@@ -0,0 +1,110 @@
+package org.epics.pvaccess.scope;
+
+/**
+ * The available {@link WaveformKernel}s.
+ * <p>
+ * The <code>scalar</code> kernel evaluates one sample per iteration and is
+ * always available. The <code>vector</code> kernel evaluates a full SIMD
+ * register of samples per iteration with the incubating Vector API; it is
+ * shipped in the <code>META-INF/versions/17</code> part of the multi-release
+ * jar and only available on JDK 17 or later started with
+ * <code>--add-modules jdk.incubator.vector</code>. Elsewhere the channels
+ * asking for it fall back to the scalar kernel.
+ */
+public final class WaveformKernels {
+
+    static final String AUTO = "auto";
+    static final String SCALAR_NAME = "scalar";
+    static final String VECTOR_NAME = "vector";
+    // not a kernel, the period tables of SignalGenerator.PeriodTableWaveform
+    static final String TABLE_NAME = "table";
+
+    private static final double TWO_PI = 2 * Math.PI;
+
+    /**
+     * The kernel evaluating one sample per iteration.
+     */
+    public static final WaveformKernel SCALAR = new ScalarKernel();
+
+    /**
+     * The Vector API kernel, or <code>null</code> if not available on this JVM.
+     */
+    public static final WaveformKernel VECTOR = loadVectorKernel();
+
+    private WaveformKernels() {
+    }
+
+    private static WaveformKernel loadVectorKernel() {
+        try {
+            Class<?> type = Class.forName(WaveformKernels.class.getPackage().getName() + ".VectorWaveformKernel");
+            WaveformKernel kernel = (WaveformKernel) type.getDeclaredConstructor().newInstance();
+            // links the Vector API classes, fails without the incubator module
+            kernel.sine(0, 1, new double[1], 0, 1);
+            return kernel;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the fastest kernel available on this JVM
+     */
+    public static WaveformKernel getDefault() {
+        return (VECTOR != null) ? VECTOR : SCALAR;
+    }
+
+    /**
+     * @param name
+     *            <code>auto</code>, <code>scalar</code> or <code>vector</code>
+     * @return the kernel with the given name, the default one for
+     *         <code>auto</code> and the scalar one for <code>vector</code> if
+     *         the Vector API is not available
+     * @throws IllegalArgumentException
+     *             if the name is unknown
+     */
+    public static WaveformKernel forName(String name) {
+        switch (name) {
+        case AUTO:
+            return getDefault();
+        case SCALAR_NAME:
+            return SCALAR;
+        case VECTOR_NAME:
+            return (VECTOR != null) ? VECTOR : SCALAR;
+        default:
+            throw new IllegalArgumentException("unknown kernel: " + name);
+        }
+    }
+
+    private static class ScalarKernel implements WaveformKernel {
+
+        @Override
+        public String getName() {
+            return SCALAR_NAME;
+        }
+
+        @Override
+        public void sine(double phase, double k, double[] buffer, int from, int to) {
+            for (int i = from; i < to; i++) {
+                buffer[i] = Math.sin(phase + k * i);
+            }
+        }
+
+        @Override
+        public void sawtooth(double phase, double k, double[] buffer, int from, int to) {
+            for (int i = from; i < to; i++) {
+                double x = (phase + k * i) / TWO_PI;
+                double normalizedPositionInPeriod = x - (double) (long) x;
+                buffer[i] = -1.0 + 2 * normalizedPositionInPeriod;
+            }
+        }
+
+        @Override
+        public void square(double phase, double k, double[] buffer, int from, int to) {
+            for (int i = from; i < to; i++) {
+                double x = (phase + k * i) / TWO_PI;
+                double normalizedPositionInPeriod = x - (double) (long) x;
+                buffer[i] = (normalizedPositionInPeriod < 0.5) ? 1.0 : -1.0;
+            }
+        }
+    }
+}
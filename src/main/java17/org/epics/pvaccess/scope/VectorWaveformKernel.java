@@ -0,0 +1,88 @@
+package org.epics.pvaccess.scope;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link WaveformKernel} evaluating one SIMD register of samples per
+ * iteration with the Vector API, the tail of the range with scalar code.
+ * Loaded by {@link WaveformKernels} when the <code>jdk.incubator.vector</code>
+ * module is present.
+ */
+class VectorWaveformKernel implements WaveformKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final double TWO_PI = 2 * Math.PI;
+    private static final double TWO_POW_52 = 4503599627370496.0;
+
+    // 0, 1, 2, ... one per lane
+    private final DoubleVector lanes;
+
+    VectorWaveformKernel() {
+        double[] indices = new double[SPECIES.length()];
+        for (int i = 0; i < indices.length; i++)
+            indices[i] = i;
+        lanes = DoubleVector.fromArray(SPECIES, indices, 0);
+    }
+
+    @Override
+    public String getName() {
+        return WaveformKernels.VECTOR_NAME;
+    }
+
+    @Override
+    public void sine(double phase, double k, double[] buffer, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            lanes.add(i).mul(k).add(phase).lanewise(VectorOperators.SIN).intoArray(buffer, i);
+        }
+        for (; i < to; i++) {
+            buffer[i] = Math.sin(phase + k * i);
+        }
+    }
+
+    @Override
+    public void sawtooth(double phase, double k, double[] buffer, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector x = lanes.add(i).mul(k).add(phase).div(TWO_PI);
+            fraction(x).mul(2).add(-1.0).intoArray(buffer, i);
+        }
+        for (; i < to; i++) {
+            double x = (phase + k * i) / TWO_PI;
+            buffer[i] = -1.0 + 2 * (x - (double) (long) x);
+        }
+    }
+
+    @Override
+    public void square(double phase, double k, double[] buffer, int from, int to) {
+        DoubleVector low = DoubleVector.broadcast(SPECIES, -1.0);
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector x = lanes.add(i).mul(k).add(phase).div(TWO_PI);
+            low.blend(1.0, fraction(x).compare(VectorOperators.LT, 0.5)).intoArray(buffer, i);
+        }
+        for (; i < to; i++) {
+            double x = (phase + k * i) / TWO_PI;
+            buffer[i] = ((x - (double) (long) x) < 0.5) ? 1.0 : -1.0;
+        }
+    }
+
+    /**
+     * <code>x - (double) (long) x</code> for the non negative lanes, without
+     * the double to long conversion which most CPUs cannot vectorize: adding
+     * and subtracting 2^52 rounds to the nearest integer, which is then
+     * corrected down. The lanes past 2^52 are integers.
+     */
+    private static DoubleVector fraction(DoubleVector x) {
+        DoubleVector rounded = x.add(TWO_POW_52).sub(TWO_POW_52);
+        VectorMask<Double> roundedUp = rounded.compare(VectorOperators.GT, x);
+        DoubleVector truncated = rounded.sub(1.0, roundedUp);
+        return x.sub(truncated).blend(0.0, x.compare(VectorOperators.GE, TWO_POW_52));
+    }
+}